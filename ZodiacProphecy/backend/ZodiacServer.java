@@ -1,13 +1,63 @@
+package zodiac;
 
 import com.sun.net.httpserver.*;
 import java.io.*;
 import java.net.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
 
 interface DataPersistence {
     void saveUser(User user);
@@ -19,7 +69,13 @@ interface DataPersistence {
 
 interface ProphecyGenerator {
     Prophecy generateProphecy(User user, Date date);
-    String calculateZodiacSign(int month, int day);
+
+    // Generates as of the given time instead of the current one
+    default Prophecy generateProphecy(User user, Date date, Date now) {
+        return generateProphecy(user, date);
+    }
+
+    ZodiacSign calculateZodiacSign(int month, int day);
 }
 
 interface Validator {
@@ -28,13 +84,518 @@ interface Validator {
 }
 
 interface Exportable {
-    String exportToCSV();
-    String exportToJSON();
+    void writeCSV(CsvWriter writer) throws IOException;
+    void writeJSON(JsonWriter writer);
+
+    default String exportToCSV() {
+        StringWriter out = new StringWriter();
+        try {
+            writeCSV(new CsvWriter(out));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    default String exportToJSON() {
+        JsonWriter writer = new JsonWriter();
+        writeJSON(writer);
+        return writer.toString();
+    }
+}
+
+enum ZodiacSign {
+    ARIES("Aries", 3, 21),
+    TAURUS("Taurus", 4, 20),
+    GEMINI("Gemini", 5, 21),
+    CANCER("Cancer", 6, 21),
+    LEO("Leo", 7, 23),
+    VIRGO("Virgo", 8, 23),
+    LIBRA("Libra", 9, 23),
+    SCORPIO("Scorpio", 10, 23),
+    SAGITTARIUS("Sagittarius", 11, 22),
+    CAPRICORN("Capricorn", 12, 22),
+    AQUARIUS("Aquarius", 1, 20),
+    PISCES("Pisces", 2, 19);
+
+    private static final int DAYS_PER_MONTH = 31;
+    private static final ZodiacSign[] VALUES = values();
+    // Indexed by (month - 1) * 31 + (day - 1), covering every month/day the validator accepts
+    private static final ZodiacSign[] BY_BIRTHDAY = buildBirthdayTable();
+
+    private final String displayName;
+    private final String upperCaseName;
+    private final int startMonth;
+    private final int startDay;
+
+    ZodiacSign(String displayName, int startMonth, int startDay) {
+        this.displayName = displayName;
+        this.upperCaseName = displayName.toUpperCase(Locale.ROOT);
+        this.startMonth = startMonth;
+        this.startDay = startDay;
+    }
+
+    public String getDisplayName() { return displayName; }
+    public String getUpperCaseName() { return upperCaseName; }
+
+    // First and last birthday of the sign as month * 100 + day; the range wraps for Capricorn
+    public int getStartKey() { return startMonth * 100 + startDay; }
+    public int getEndKey() {
+        ZodiacSign next = VALUES[(ordinal() + 1) % VALUES.length];
+        return next.startDay > 1 ? next.startMonth * 100 + next.startDay - 1 : next.startMonth * 100 - 100 + DAYS_PER_MONTH;
+    }
+
+    public static ZodiacSign fromBirthday(int month, int day) {
+        if (month < 1 || month > 12) return CAPRICORN;
+        // Out-of-range days resolve like the nearest day of the month
+        int clampedDay = Math.max(1, Math.min(day, DAYS_PER_MONTH));
+        return BY_BIRTHDAY[(month - 1) * DAYS_PER_MONTH + (clampedDay - 1)];
+    }
+
+    public static ZodiacSign fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    // Case-insensitive lookup by display name; returns null for unknown names
+    public static ZodiacSign fromName(String name) {
+        for (ZodiacSign sign : VALUES) {
+            if (sign.displayName.equalsIgnoreCase(name)) return sign;
+        }
+        return null;
+    }
+
+    private static ZodiacSign[] buildBirthdayTable() {
+        ZodiacSign[] table = new ZodiacSign[12 * DAYS_PER_MONTH];
+        for (ZodiacSign sign : values()) {
+            // Days before the cusp belong to the previous sign
+            ZodiacSign previous = values()[(sign.ordinal() + 11) % 12];
+            for (int day = 1; day <= DAYS_PER_MONTH; day++) {
+                table[(sign.startMonth - 1) * DAYS_PER_MONTH + (day - 1)] = day >= sign.startDay ? sign : previous;
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public String toString() { return displayName; }
+}
+
+/*
+ * Flight Recorder events for the work inside a request. They cost next to nothing unless a
+ * recording is running: callers fill in the fields only once shouldCommit() says the event
+ * is wanted. Record with POST /api/admin/recording or -XX:StartFlightRecording.
+ */
+
+@Name("zodiac.HttpRequest")
+@Label("HTTP Request")
+@Category({"Zodiac", "HTTP"})
+@StackTrace(false)
+class HttpRequestEvent extends Event {
+    @Label("Endpoint") String endpoint;
+    @Label("Method") String method;
+    @Label("Status") int status;
+    @Label("Request Bytes") @DataAmount long requestBytes;
+    @Label("Response Bytes") @DataAmount long responseBytes;
+}
+
+@Name("zodiac.RequestParse")
+@Label("Request Parse")
+@Category({"Zodiac", "HTTP"})
+@StackTrace(false)
+class RequestParseEvent extends Event {
+    @Label("Endpoint") String endpoint;
+    @Label("Records") int records;
+    @Label("Bytes") @DataAmount long bytes;
+}
+
+@Name("zodiac.ResponseWrite")
+@Label("Response Write")
+@Category({"Zodiac", "HTTP"})
+@StackTrace(false)
+class ResponseWriteEvent extends Event {
+    @Label("Endpoint") String endpoint;
+    @Label("Status") int status;
+    @Label("Bytes") @DataAmount long bytes;
+}
+
+@Name("zodiac.ProphecyGeneration")
+@Label("Prophecy Generation")
+@Category({"Zodiac", "Prophecy"})
+@StackTrace(false)
+class ProphecyGenerationEvent extends Event {
+    @Label("User Id") String userId;
+    @Label("Zodiac Sign") String zodiacSign;
+}
+
+@Name("zodiac.Transaction")
+@Label("Transaction")
+@Category({"Zodiac", "Persistence"})
+class TransactionEvent extends Event {
+    @Label("Transaction") String transaction;
+    @Label("Committed") boolean committed;
+}
+
+@Name("zodiac.Persistence")
+@Label("Persistence Call")
+@Category({"Zodiac", "Persistence"})
+@StackTrace(false)
+class PersistenceEvent extends Event {
+    @Label("Operation") String operation;
+    @Label("Records") int records;
+}
+
+@Name("zodiac.WalSync")
+@Label("Write-Ahead Log Sync Wait")
+@Description("Time a writer waited for its log record to reach disk")
+@Category({"Zodiac", "Persistence"})
+@StackTrace(false)
+class WalSyncEvent extends Event {
+    @Label("Log Position") @DataAmount long position;
+}
+
+/**
+ * The on-demand flight recording behind /api/admin/recording; one may be open at a time.
+ * It is bounded by age and size and stops by itself after {@link #MAX_DURATION}, so a
+ * forgotten recording cannot grow without limit. A stopped recording can still be dumped
+ * until it is closed.
+ */
+class FlightRecorderControl {
+    static final long MAX_SIZE_BYTES = 64L * 1024 * 1024;
+    static final Duration MAX_AGE_LIMIT = Duration.ofHours(1);
+    static final Duration MAX_DURATION = Duration.ofMinutes(30);
+    private static final Set<String> SETTINGS = Set.of("default", "profile");
+
+    private final AtomicReference<Recording> current = new AtomicReference<>();
+
+    /** Starts a recording with the named JDK settings; false if one is already open. */
+    public boolean start(String settings, Duration maxAge) throws IOException {
+        if (!SETTINGS.contains(settings)) throw new IllegalArgumentException("settings must be default or profile");
+        if (maxAge.isNegative() || maxAge.isZero() || maxAge.compareTo(MAX_AGE_LIMIT) > 0) {
+            throw new IllegalArgumentException("maxAgeSeconds must be between 1 and " + MAX_AGE_LIMIT.getSeconds());
+        }
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration(settings));
+        } catch (java.text.ParseException e) {
+            throw new IOException("Unreadable recording settings: " + settings, e);
+        }
+        recording.setName("zodiac-on-demand");
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.setMaxSize(MAX_SIZE_BYTES);
+        recording.setDuration(MAX_DURATION);
+        if (!current.compareAndSet(null, recording)) {
+            recording.close();
+            return false;
+        }
+        recording.start();
+        return true;
+    }
+
+    /** Writes what has been recorded so far to a new temporary file; null when no recording is open. */
+    public Path dump() throws IOException {
+        Recording recording = current.get();
+        if (recording == null) return null;
+        Path file = Files.createTempFile("zodiac-", ".jfr");
+        try {
+            recording.dump(file);
+        } catch (IOException | IllegalStateException e) {
+            Files.deleteIfExists(file);
+            throw new IOException("Recording closed while dumping", e);
+        }
+        return file;
+    }
+
+    /** Stops and discards the open recording; false when there was none. */
+    public boolean close() {
+        Recording recording = current.getAndSet(null);
+        if (recording == null) return false;
+        recording.close();
+        return true;
+    }
+
+    public void writeJSON(JsonWriter writer) {
+        Recording recording = current.get();
+        writer.beginObject().name("recording").value(recording != null);
+        if (recording != null) {
+            writer.name("state").value(recording.getState().name().toLowerCase(Locale.ROOT))
+                .name("maxAgeSeconds").value(recording.getMaxAge().getSeconds())
+                .name("maxSizeBytes").value(recording.getMaxSize());
+        }
+        writer.endObject();
+    }
+}
+
+/**
+ * Latency histograms and byte counts per endpoint, method and status, recorded by
+ * BaseHandler for every request and exposed in Prometheus text format at
+ * /api/admin/metrics. Recording takes no locks: a series is found through a concurrent
+ * map and a per-status array, and is created once by whichever request gets there first.
+ */
+class RequestMetrics {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Upper bounds of the latency buckets, from 100us to 10s; a final +Inf bucket takes the rest
+    private static final double[] BUCKET_SECONDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+    private static final String[] BUCKET_LABELS = new String[BUCKET_SECONDS.length + 1];
+    private static final Set<String> KNOWN_METHODS = Set.of("GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS");
+    private static final int MAX_STATUS = 599;
+    private static final RequestMetrics SHARED = new RequestMetrics();
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * 1e9);
+            BUCKET_LABELS[i] = java.math.BigDecimal.valueOf(BUCKET_SECONDS[i]).stripTrailingZeros().toPlainString();
+        }
+        BUCKET_LABELS[BUCKET_SECONDS.length] = "+Inf";
+    }
+
+    private static final class Series {
+        final String labels;
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NANOS.length + 1);
+        final LongAdder sumNanos = new LongAdder();
+        final LongAdder requestBytes = new LongAdder();
+        final LongAdder responseBytes = new LongAdder();
+
+        Series(String labels) {
+            this.labels = labels;
+        }
+
+        void record(long nanos, long received, long sent) {
+            int bucket = 0;
+            while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) bucket++;
+            buckets.incrementAndGet(bucket);
+            sumNanos.add(nanos);
+            requestBytes.add(received);
+            responseBytes.add(sent);
+        }
+    }
+
+    // Series of one endpoint and method, indexed by status code; slot 0 is for requests that sent no response
+    private static final class Route {
+        final String endpoint;
+        final String method;
+        final AtomicReferenceArray<Series> byStatus = new AtomicReferenceArray<>(MAX_STATUS + 1);
+
+        Route(String endpoint, String method) {
+            this.endpoint = endpoint;
+            this.method = method;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    public static RequestMetrics shared() {
+        return SHARED;
+    }
+
+    /** Forgets every series, so traffic that is not real, such as warm-up, does not skew the histograms. */
+    public void reset() {
+        routes.clear();
+    }
+
+    public void record(String endpoint, String method, int status, long nanos, long requestBytes, long responseBytes) {
+        // Methods come straight from the request line, so unknown ones share a series
+        String methodLabel = KNOWN_METHODS.contains(method) ? method : "OTHER";
+        String key = methodLabel + ' ' + endpoint;
+        Route route = routes.get(key);
+        if (route == null) route = routes.computeIfAbsent(key, k -> new Route(endpoint, methodLabel));
+
+        int slot = status >= 100 && status <= MAX_STATUS ? status : 0;
+        Series series = route.byStatus.get(slot);
+        if (series == null) {
+            Series created = new Series("endpoint=\"" + escape(endpoint) + "\",method=\"" + methodLabel
+                + "\",status=\"" + (slot == 0 ? "none" : String.valueOf(slot)) + "\"");
+            series = route.byStatus.compareAndSet(slot, null, created) ? created : route.byStatus.get(slot);
+        }
+        series.record(nanos, requestBytes, responseBytes);
+    }
+
+    public void writePrometheus(StringBuilder out) {
+        List<Series> all = new ArrayList<>();
+        for (Route route : routes.values()) {
+            for (int slot = 0; slot <= MAX_STATUS; slot++) {
+                Series series = route.byStatus.get(slot);
+                if (series != null) all.add(series);
+            }
+        }
+        all.sort(Comparator.comparing(series -> series.labels));
+
+        writeHeader(out, "zodiac_http_request_duration_seconds", "histogram", "Time spent handling requests");
+        for (Series series : all) {
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKET_NANOS.length; i++) {
+                cumulative += series.buckets.get(i);
+                out.append("zodiac_http_request_duration_seconds_bucket{").append(series.labels).append(",le=\"")
+                    .append(BUCKET_LABELS[i]).append("\"} ")
+                    .append(cumulative).append('\n');
+            }
+            out.append("zodiac_http_request_duration_seconds_sum{").append(series.labels).append("} ")
+                .append(series.sumNanos.sum() / 1e9).append('\n');
+            out.append("zodiac_http_request_duration_seconds_count{").append(series.labels).append("} ")
+                .append(cumulative).append('\n');
+        }
+        writeHeader(out, "zodiac_http_request_bytes_total", "counter", "Request body bytes read by handlers");
+        for (Series series : all) {
+            out.append("zodiac_http_request_bytes_total{").append(series.labels).append("} ").append(series.requestBytes.sum()).append('\n');
+        }
+        writeHeader(out, "zodiac_http_response_bytes_total", "counter", "Response body bytes written");
+        for (Series series : all) {
+            out.append("zodiac_http_response_bytes_total{").append(series.labels).append("} ").append(series.responseBytes.sum()).append('\n');
+        }
+    }
+
+    static void writeSample(StringBuilder out, String name, String type, String help, long value) {
+        writeHeader(out, name, type, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    static void writeSample(StringBuilder out, String name, String type, String help, double value) {
+        writeHeader(out, name, type, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void writeHeader(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
+
+/**
+ * Cold-start timings, measured from JVM launch: when the port opened and when the first
+ * request after that was answered. Requests sent during warm-up or a training run come
+ * before the port opens and are not counted.
+ */
+class StartupTimes {
+    private static final StartupTimes SHARED = new StartupTimes();
+
+    // Wall-clock times; converting them needs the management classes, which can wait until reporting
+    private final AtomicLong readyAt = new AtomicLong(-1);
+    private final AtomicLong firstRequestAt = new AtomicLong(-1);
+
+    public static StartupTimes shared() {
+        return SHARED;
+    }
+
+    /** Marks the port as open; call it before the server starts accepting so no request comes first. */
+    public void ready() {
+        readyAt.compareAndSet(-1, System.currentTimeMillis());
+    }
+
+    public long getReadyMillis() {
+        return sinceJvmStart(readyAt.get());
+    }
+
+    // Called after every request, so the common case is one read
+    public void requestServed() {
+        if (firstRequestAt.get() >= 0 || readyAt.get() < 0) return;
+        if (firstRequestAt.compareAndSet(-1, System.currentTimeMillis())) {
+            System.out.println("⚡ First request answered " + sinceJvmStart(firstRequestAt.get()) + " ms after JVM start");
+        }
+    }
+
+    public void writePrometheus(StringBuilder out) {
+        if (readyAt.get() >= 0) {
+            RequestMetrics.writeSample(out, "zodiac_startup_ready_seconds", "gauge",
+                "Time from JVM start until the port opened", getReadyMillis() / 1000.0);
+        }
+        if (firstRequestAt.get() >= 0) {
+            RequestMetrics.writeSample(out, "zodiac_startup_first_request_seconds", "gauge",
+                "Time from JVM start until the first request was answered", sinceJvmStart(firstRequestAt.get()) / 1000.0);
+        }
+    }
+
+    private static long sinceJvmStart(long wallClockMillis) {
+        return wallClockMillis - java.lang.management.ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
 }
 
 abstract class BaseHandler implements HttpHandler {
     protected static final String CORS_HEADERS = "Content-Type, Authorization, X-Requested-With";
     protected static final String ALLOWED_ORIGINS = "*";
+    protected static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    /** Times the request and counts its body bytes for {@link RequestMetrics}. */
+    @Override
+    public final void handle(HttpExchange exchange) throws IOException {
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        CountingInputStream in = new CountingInputStream(exchange.getRequestBody());
+        CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody());
+        exchange.setStreams(in, out);
+        try {
+            handleRequest(exchange);
+        } finally {
+            String endpoint = endpointOf(exchange);
+            RequestMetrics.shared().record(endpoint, exchange.getRequestMethod(), exchange.getResponseCode(),
+                System.nanoTime() - start, in.count, out.count);
+            if (event.shouldCommit()) {
+                event.endpoint = endpoint;
+                event.method = exchange.getRequestMethod();
+                event.status = exchange.getResponseCode();
+                event.requestBytes = in.count;
+                event.responseBytes = out.count;
+                event.commit();
+            }
+            StartupTimes.shared().requestServed();
+        }
+    }
+
+    protected abstract void handleRequest(HttpExchange exchange) throws IOException;
+
+    // Metrics label for the request; handlers with several routes name them so paths cannot grow the label set
+    protected String endpointOf(HttpExchange exchange) {
+        return exchange.getHttpContext().getPath();
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 
     protected void setCORSHeaders(HttpExchange exchange) {
         Headers headers = exchange.getResponseHeaders();
@@ -45,11 +606,50 @@ abstract class BaseHandler implements HttpHandler {
     }
 
     protected void sendJsonResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(statusCode, response.length());
+        sendJsonResponse(exchange, statusCode, response.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected void sendJsonResponse(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+        ResponseWriteEvent event = new ResponseWriteEvent();
+        event.begin();
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(statusCode, body.length);
         try (OutputStream os = exchange.getResponseBody()) {
-            os.write(response.getBytes());
+            os.write(body);
         }
+        commit(event, exchange, statusCode, body.length);
+    }
+
+    protected void sendJsonResponse(HttpExchange exchange, int statusCode, JsonWriter response) throws IOException {
+        ResponseWriteEvent event = new ResponseWriteEvent();
+        event.begin();
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(statusCode, response.size());
+        try (OutputStream os = exchange.getResponseBody()) {
+            response.writeTo(os);
+        }
+        commit(event, exchange, statusCode, response.size());
+    }
+
+    private void commit(ResponseWriteEvent event, HttpExchange exchange, int statusCode, long bytes) {
+        if (event.shouldCommit()) {
+            event.endpoint = endpointOf(exchange);
+            event.status = statusCode;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    // Starts a chunked response whose length is unknown up front
+    protected void sendChunkedHeaders(HttpExchange exchange, int statusCode, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, 0);
+    }
+
+    protected void sendJsonError(HttpExchange exchange, int statusCode, String message) throws IOException {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().name("error").value(message).endObject();
+        sendJsonResponse(exchange, statusCode, json);
     }
 
     protected String extractParameter(String query, String paramName) {
@@ -64,6 +664,27 @@ abstract class BaseHandler implements HttpHandler {
         return null;
     }
 
+    // True when If-None-Match lists the given strong ETag (or *); weak prefixes are ignored
+    protected boolean etagMatches(HttpExchange exchange, String etag) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    protected boolean acceptsGzip(HttpExchange exchange) {
+        List<String> encodings = exchange.getRequestHeaders().get("Accept-Encoding");
+        if (encodings == null) return false;
+        for (String encoding : encodings) {
+            if (encoding.toLowerCase(Locale.ROOT).contains("gzip")) return true;
+        }
+        return false;
+    }
+
     protected boolean isOptionsRequest(HttpExchange exchange) {
         return "OPTIONS".equals(exchange.getRequestMethod());
     }
@@ -82,6 +703,8 @@ abstract class Transaction {
     public abstract void rollback() throws Exception;
 
     public final boolean commit() {
+        TransactionEvent event = new TransactionEvent();
+        event.begin();
         try {
             execute();
             completed = true;
@@ -94,6 +717,12 @@ abstract class Transaction {
                 System.err.println("Rollback failed: " + rollbackException.getMessage());
             }
             return false;
+        } finally {
+            if (event.shouldCommit()) {
+                event.transaction = getClass().getSimpleName();
+                event.committed = completed;
+                event.commit();
+            }
         }
     }
 
@@ -150,22 +779,25 @@ class User implements Exportable {
     public void setTimestamp(Date timestamp) { this.timestamp = timestamp; }
 
     @Override
-    public String exportToCSV() {
-        return String.format("%s,%s,%s,%s,%s,%d,%d,%d,%s",
-            surname, firstName, middleInitial != null ? middleInitial : "",
-            suffix != null ? suffix : "", gender, month, day, year,
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(timestamp));
+    public void writeCSV(CsvWriter writer) throws IOException {
+        writer.field(surname).field(firstName).field(middleInitial).field(suffix).field(gender)
+            .field(month).field(day).field(year).field(timestamp);
     }
 
     @Override
-    public String exportToJSON() {
-        return String.format(
-            "{\"id\":\"%s\",\"surname\":\"%s\",\"firstName\":\"%s\",\"middleInitial\":\"%s\",\"suffix\":\"%s\",\"gender\":\"%s\",\"month\":%d,\"day\":%d,\"year\":%d,\"timestamp\":\"%s\"}",
-            id != null ? id : "", surname, firstName,
-            middleInitial != null ? middleInitial : "",
-            suffix != null ? suffix : "", gender, month, day, year,
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(timestamp)
-        );
+    public void writeJSON(JsonWriter writer) {
+        writer.beginObject()
+            .name("id").value(id != null ? id : "")
+            .name("surname").value(surname)
+            .name("firstName").value(firstName)
+            .name("middleInitial").value(middleInitial != null ? middleInitial : "")
+            .name("suffix").value(suffix != null ? suffix : "")
+            .name("gender").value(gender)
+            .name("month").value(month)
+            .name("day").value(day)
+            .name("year").value(year)
+            .name("timestamp").value(timestamp)
+            .endObject();
     }
 }
 
@@ -178,11 +810,11 @@ class Prophecy {
     private final String healthProphecy;
     private final String moneyProphecy;
     @SuppressWarnings("FieldMayBeFinal")
-    private String zodiacSign;
+    private ZodiacSign zodiacSign;
     private final Date generatedDate;
 
     public Prophecy(String mainProphecy, String loveProphecy, String careerProphecy,
-                   String healthProphecy, String moneyProphecy, String zodiacSign) {
+                   String healthProphecy, String moneyProphecy, ZodiacSign zodiacSign) {
         this.mainProphecy = mainProphecy;
         this.loveProphecy = loveProphecy;
         this.careerProphecy = careerProphecy;
@@ -197,21 +829,43 @@ class Prophecy {
     public String getCareerProphecy() { return careerProphecy; }
     public String getHealthProphecy() { return healthProphecy; }
     public String getMoneyProphecy() { return moneyProphecy; }
-    public String getZodiacSign() { return zodiacSign; }
+    public ZodiacSign getZodiacSign() { return zodiacSign; }
     public Date getGeneratedDate() { return generatedDate; }
 
+    public void writeJSON(JsonWriter writer) {
+        writer.beginObject();
+        writeFields(writer);
+        writer.endObject();
+    }
+
+    // Writes the zodiacSign and prophecy members into an object the caller has opened
+    public void writeFields(JsonWriter writer) {
+        writer.name("zodiacSign").value(zodiacSign.getDisplayName())
+            .name("prophecy").beginObject()
+                .name("main").value(mainProphecy)
+                .name("love").value(loveProphecy)
+                .name("career").value(careerProphecy)
+                .name("health").value(healthProphecy)
+                .name("money").value(moneyProphecy)
+            .endObject();
+    }
+
     public String toJSON() {
-        return String.format(
-            "{\"zodiacSign\":\"%s\",\"prophecy\":{\"main\":\"%s\",\"love\":\"%s\",\"career\":\"%s\",\"health\":\"%s\",\"money\":\"%s\"}}",
-            zodiacSign, mainProphecy, loveProphecy, careerProphecy, healthProphecy, moneyProphecy
-        );
+        JsonWriter writer = new JsonWriter();
+        writeJSON(writer);
+        return writer.toString();
     }
 }
 
+/**
+ * One visit to the consultation page. Columnar consultation logs hand out subclasses that
+ * decode each getter from a row of primitive columns, so everything here reads through
+ * the getters rather than the fields.
+ */
 class ConsultationRecord implements Exportable {
     private final User user;
     private final Date timestamp;
-    private final String zodiacSign;
+    private final ZodiacSign zodiacSign;
     private final String prophecyId;
 
     public ConsultationRecord(User user, ProphecyGenerator generator) {
@@ -221,806 +875,4512 @@ class ConsultationRecord implements Exportable {
         this.prophecyId = generateProphecyId();
     }
 
+    // Restores a record that was persisted earlier
+    ConsultationRecord(User user, Date timestamp, ZodiacSign zodiacSign, String prophecyId) {
+        this.user = user;
+        this.timestamp = timestamp;
+        this.zodiacSign = zodiacSign;
+        this.prophecyId = prophecyId;
+    }
+
+    // For row views, which keep no fields of their own
+    protected ConsultationRecord() {
+        this(null, null, null, null);
+    }
+
+    static final String PROPHECY_ID_PREFIX = "PROPHECY_";
+
     private String generateProphecyId() {
-        return "PROPHECY_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+        return IdGenerator.format(PROPHECY_ID_PREFIX, IdGenerator.shared().nextId());
     }
 
     public User getUser() { return user; }
     public Date getTimestamp() { return timestamp; }
-    public String getZodiacSign() { return zodiacSign; }
+    public ZodiacSign getZodiacSign() { return zodiacSign; }
     public String getProphecyId() { return prophecyId; }
 
+    public long getTimestampMillis() { return timestamp.getTime(); }
+    public String getUserId() { return user.getId(); }
+    public String getSurname() { return user.getSurname(); }
+    public String getFirstName() { return user.getFirstName(); }
+    public String getMiddleInitial() { return user.getMiddleInitial(); }
+    public String getSuffix() { return user.getSuffix(); }
+    public String getGender() { return user.getGender(); }
+    public int getMonth() { return user.getMonth(); }
+    public int getDay() { return user.getDay(); }
+    public int getYear() { return user.getYear(); }
+
     @Override
-    public String exportToCSV() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return String.format("%s,%s,%s,%s,%s,%d,%d,%d,%s,%s",
-            user.getSurname(), user.getFirstName(),
-            user.getMiddleInitial() != null ? user.getMiddleInitial() : "",
-            user.getSuffix() != null ? user.getSuffix() : "",
-            user.getGender(), user.getMonth(), user.getDay(), user.getYear(),
-            zodiacSign, sdf.format(timestamp));
+    public void writeCSV(CsvWriter writer) throws IOException {
+        writer.field(getSurname()).field(getFirstName())
+            .field(getMiddleInitial()).field(getSuffix()).field(getGender())
+            .field(getMonth()).field(getDay()).field(getYear())
+            .field(getZodiacSign().getDisplayName()).field(getTimestamp());
     }
 
     @Override
-    public String exportToJSON() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return String.format(
-            "{\"name\":\"%s, %s %s\",\"gender\":\"%s\",\"birthdate\":\"%d/%d/%d\",\"zodiacSign\":\"%s\",\"timestamp\":\"%s\",\"prophecyId\":\"%s\"}",
-            user.getSurname(), user.getFirstName(),
-            user.getMiddleInitial() != null ? user.getMiddleInitial() : "",
-            user.getGender(), user.getMonth(), user.getDay(), user.getYear(),
-            zodiacSign, sdf.format(timestamp), prophecyId
-        );
+    public void writeJSON(JsonWriter writer) {
+        writer.beginObject()
+            .name("name").beginString()
+                .stringPart(getSurname()).stringPart(", ")
+                .stringPart(getFirstName()).stringPart(" ")
+                .stringPart(getMiddleInitial())
+            .endString()
+            .name("gender").value(getGender())
+            .name("birthdate").beginString()
+                .stringPart(getMonth()).stringPart("/")
+                .stringPart(getDay()).stringPart("/")
+                .stringPart(getYear())
+            .endString()
+            .name("zodiacSign").value(getZodiacSign().getDisplayName())
+            .name("timestamp").value(getTimestamp())
+            .name("prophecyId").value(getProphecyId())
+            .endObject();
     }
 }
 
-class InMemoryDataPersistence implements DataPersistence {
-    private final Map<String, User> userDatabase = new ConcurrentHashMap<>();
-    private final List<ConsultationRecord> consultations = Collections.synchronizedList(new ArrayList<>());
-
-    @Override
-    public void saveUser(User user) {
-        if (user.getId() == null) {
-            user.setId(generateUserId());
-        }
-        userDatabase.put(user.getId(), user);
-    }
+class ConsultationFilter {
+    public static final ConsultationFilter ALL = new ConsultationFilter(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
 
-    @Override
-    public User getUserById(String id) {
-        return userDatabase.get(id);
-    }
+    private final String gender;
+    private final ZodiacSign zodiacSign;
+    private final long fromMillis;
+    private final long toMillis;
 
-    @Override
-    public List<User> getAllUsers() {
-        return new ArrayList<>(userDatabase.values());
+    public ConsultationFilter(String gender, ZodiacSign zodiacSign, long fromMillis, long toMillis) {
+        this.gender = gender;
+        this.zodiacSign = zodiacSign;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
     }
 
-    @Override
-    public void clearAllData() {
-        userDatabase.clear();
-        consultations.clear();
+    /**
+     * Builds a filter from the gender, sign, from and to query parameters. Dates use
+     * yyyy-MM-dd and both ends are inclusive.
+     */
+    public static ConsultationFilter fromParameters(String gender, String sign, String from, String to) {
+        ZodiacSign zodiacSign = null;
+        if (sign != null) {
+            zodiacSign = ZodiacSign.fromName(sign);
+            if (zodiacSign == null) throw new IllegalArgumentException("Unknown zodiac sign");
+        }
+        long fromMillis = from != null ? startOfDay(from, 0) : Long.MIN_VALUE;
+        long toMillis = to != null ? startOfDay(to, 1) - 1 : Long.MAX_VALUE;
+        return new ConsultationFilter(gender != null ? gender.toUpperCase(Locale.ROOT) : null,
+            zodiacSign, fromMillis, toMillis);
     }
 
-    @Override
-    public boolean userExists(String id) {
-        return userDatabase.containsKey(id);
+    private static long startOfDay(String date, int plusDays) {
+        try {
+            return java.time.LocalDate.parse(date).plusDays(plusDays)
+                .atStartOfDay(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (java.time.format.DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date, expected yyyy-MM-dd");
+        }
     }
 
-    public void addConsultation(ConsultationRecord record) {
-        consultations.add(record);
+    public boolean hasTimeRange() {
+        return fromMillis != Long.MIN_VALUE || toMillis != Long.MAX_VALUE;
     }
 
-    public List<ConsultationRecord> getAllConsultations() {
-        return new ArrayList<>(consultations);
-    }
+    public long getFromMillis() { return fromMillis; }
+    public long getToMillis() { return toMillis; }
 
-    private String generateUserId() {
-        return "USER_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+    public boolean matches(ConsultationRecord record) {
+        if (zodiacSign != null && record.getZodiacSign() != zodiacSign) return false;
+        if (gender != null && !gender.equals(record.getGender())) return false;
+        long time = record.getTimestampMillis();
+        return time >= fromMillis && time <= toMillis;
     }
 }
 
-class ZodiacProphecyGenerator implements ProphecyGenerator {
-    @SuppressWarnings("unused")
-    private final Map<String, String[]> prophecyTemplates;
+/**
+ * Consultation counters maintained on every insert, so admin statistics are read in
+ * constant time. Per-day counts are kept for a rolling window of recent days.
+ */
+class ConsultationStats {
+    static final int WINDOW_DAYS = 32;
+    private static final int REPORTED_DAYS = 7;
 
-    public ZodiacProphecyGenerator() {
-        prophecyTemplates = initializeProphecyTemplates();
-    }
+    private static final class DayBucket {
+        final int dayKey;
+        final LongAdder count = new LongAdder();
 
-    @Override
-    public Prophecy generateProphecy(User user, Date date) {
-        String zodiacSign = calculateZodiacSign(user.getMonth(), user.getDay());
-        int seed = generateSeed(user, date);
+        DayBucket(int dayKey) {
+            this.dayKey = dayKey;
+        }
+    }
 
-        // Generate completely dynamic main prophecy
-        String mainProphecy = generateDynamicMainProphecy(zodiacSign, user, date, seed);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder male = new LongAdder();
+    private final LongAdder female = new LongAdder();
+    private final LongAdder[] signs = new LongAdder[ZodiacSign.values().length];
+    private final AtomicReferenceArray<DayBucket> days = new AtomicReferenceArray<>(WINDOW_DAYS);
 
-        return new Prophecy(
-            mainProphecy,
-            generateCategoryProphecy("love", zodiacSign, seed + 1),
-            generateCategoryProphecy("career", zodiacSign, seed + 2),
-            generateCategoryProphecy("health", zodiacSign, seed + 3),
-            generateCategoryProphecy("money", zodiacSign, seed + 4),
-            zodiacSign
-        );
+    public ConsultationStats() {
+        for (int i = 0; i < signs.length; i++) {
+            signs[i] = new LongAdder();
+        }
     }
 
-    private String generateDynamicMainProphecy(String zodiacSign, User user, Date date, @SuppressWarnings("unused") int seed) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        String dateString = dateFormat.format(date);
-
-        // Create unique seed based on birthday (not year) and current date
-        String birthdaySeed = zodiacSign + user.getMonth() + user.getDay();
-        String dailySeed = birthdaySeed + dateString;
-        int dynamicSeed = Math.abs(dailySeed.hashCode());
-
-        // AI-like dynamic text generation components
-        String[] energyWords = {"cosmic", "celestial", "universal", "spiritual", "mystical", "divine", "magical", "ethereal", "astral", "quantum"};
-        String[] actionWords = {"awakens", "transforms", "reveals", "channels", "amplifies", "manifests", "creates", "unlocks", "ignites", "activates"};
-        String[] qualityWords = {"profound", "intense", "gentle", "powerful", "harmonious", "dynamic", "radiant", "vibrant", "luminous", "transcendent"};
-        String[] timeWords = {"today", "now", "this moment", "currently", "at present", "right now", "this day", "immediately"};
-        String[] connectionWords = {"through", "via", "by way of", "using", "with the help of", "guided by", "influenced by", "powered by"};
-
-        // Generate unique structure each day
-        String[] mainStructures = {
-            energyWords[dynamicSeed % energyWords.length] + " energy " + actionWords[(dynamicSeed + 1) % actionWords.length] + " " + qualityWords[(dynamicSeed + 2) % qualityWords.length] + " opportunities " + timeWords[dynamicSeed % timeWords.length] + ". Your inner wisdom guides this transformation through " + zodiacSign + "'s influence.",
-            timeWords[dynamicSeed % timeWords.length] + ", " + qualityWords[(dynamicSeed + 3) % qualityWords.length] + " " + energyWords[(dynamicSeed + 4) % energyWords.length] + " forces " + actionWords[(dynamicSeed + 5) % actionWords.length] + " new paths. " + zodiacSign + " energy flows " + connectionWords[dynamicSeed % connectionWords.length] + " your choices.",
-            "A " + qualityWords[(dynamicSeed + 6) % qualityWords.length] + " shift " + actionWords[(dynamicSeed + 7) % actionWords.length] + " " + connectionWords[dynamicSeed % connectionWords.length] + " " + energyWords[(dynamicSeed + 8) % energyWords.length] + " alignment. Your " + zodiacSign + " nature enhances this cosmic dance.",
-            energyWords[(dynamicSeed + 9) % energyWords.length] + " currents " + actionWords[(dynamicSeed + 10) % actionWords.length] + " " + qualityWords[(dynamicSeed + 11) % qualityWords.length] + " change in your life. " + zodiacSign + "'s wisdom illuminates the path forward."
-        };
+    public void record(ConsultationRecord record) {
+        total.increment();
+        String gender = record.getGender();
+        if ("MALE".equals(gender)) {
+            male.increment();
+        } else if ("FEMALE".equals(gender)) {
+            female.increment();
+        }
+        signs[record.getZodiacSign().ordinal()].increment();
 
-        return mainStructures[dynamicSeed % mainStructures.length].toUpperCase();
+        DayBucket bucket = dayBucket(DailyProphecyTable.dayKey(record.getTimestamp()));
+        if (bucket != null) bucket.count.increment();
     }
 
-    @Override
-    public String calculateZodiacSign(int month, int day) {
-        if ((month == 12 && day >= 22) || (month == 1 && day <= 19)) return "Capricorn";
-        if ((month == 1 && day >= 20) || (month == 2 && day <= 18)) return "Aquarius";
-        if ((month == 2 && day >= 19) || (month == 3 && day <= 20)) return "Pisces";
-        if ((month == 3 && day >= 21) || (month == 4 && day <= 19)) return "Aries";
-        if ((month == 4 && day >= 20) || (month == 5 && day <= 20)) return "Taurus";
-        if ((month == 5 && day >= 21) || (month == 6 && day <= 20)) return "Gemini";
-        if ((month == 6 && day >= 21) || (month == 7 && day <= 22)) return "Cancer";
-        if ((month == 7 && day >= 23) || (month == 8 && day <= 22)) return "Leo";
-        if ((month == 8 && day >= 23) || (month == 9 && day <= 22)) return "Virgo";
-        if ((month == 9 && day >= 23) || (month == 10 && day <= 22)) return "Libra";
-        if ((month == 10 && day >= 23) || (month == 11 && day <= 21)) return "Scorpio";
-        if ((month == 11 && day >= 22) || (month == 12 && day <= 21)) return "Sagittarius";
-        return "Capricorn";
-    }
-
-    private String generateCategoryProphecy(String category, String zodiacSign, int seed) {
-        return generateDynamicProphecy(category, zodiacSign, seed, new Date());
-    }
-
-    private String generateDynamicProphecy(String category, String zodiacSign, int seed, Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        String dateString = dateFormat.format(date);
-
-        // Generate basic colors and stones
-        String[] basicColors = {"Red", "Blue", "Green", "Yellow", "Pink", "Purple", "Orange", "Black", "White", "Brown"};
-        String[] stones = {"Amethyst", "Ruby", "Emerald", "Sapphire", "Diamond", "Opal", "Garnet", "Turquoise", "Jade", "Pearl", "Topaz", "Quartz"};
-        String[] numbers = {"3", "7", "9", "11", "13", "17", "21", "23", "27", "31", "33", "37", "41", "44", "47", "51", "55", "63", "69", "77", "81", "88", "93", "99"};
-        String[] initials = {"A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M", "N", "O", "P", "Q", "R", "S", "T", "U", "V", "W", "X", "Y", "Z"};
-
-        // Create unique daily seed
-        String uniqueSeed = zodiacSign + category + dateString + seed;
-        int dynamicSeed = Math.abs(uniqueSeed.hashCode());
-
-        String luckyColor = basicColors[dynamicSeed % basicColors.length];
-        String luckyStone = stones[(dynamicSeed + 1) % stones.length];
-        String luckyNumber = numbers[(dynamicSeed + 2) % numbers.length];
-        String significantInitial = initials[(dynamicSeed + 3) % initials.length];
-
-        // AI-like dynamic text generation
-        String emoji = getCategoryEmoji(category);
-        String categoryText = generateCategorySpecificText(category, dynamicSeed, luckyColor, luckyStone, luckyNumber, significantInitial);
-
-        return emoji + " " + categoryText.toUpperCase();
-    }
-
-    
-
-    private String generateCategorySpecificText(String category, int seed, String color, String stone, String number, String initial) {
-        String[] structures = {
-            "Your " + getCategorySubject(category, seed) + " " + getCategoryAction(category, seed + 1) + " through " + color.toLowerCase() + " energy. The " + stone + " stone amplifies " + getCategoryOutcome(category, seed + 2) + " today.",
-            color + " surroundings attract " + getCategorySubject(category, seed + 3) + " that " + getCategoryAction(category, seed + 4) + ". Look for connections with letter " + initial + " for " + getCategoryOutcome(category, seed + 5) + ".",
-            "The number " + number + " guides " + getCategorySubject(category, seed + 6) + " toward " + getCategoryOutcome(category, seed + 7) + ". Your " + stone + " brings clarity to " + getCategoryAction(category, seed + 8) + " opportunities.",
-            getCategorySubject(category, seed + 9) + " " + getCategoryAction(category, seed + 10) + " when you embrace " + color.toLowerCase() + " choices. " + stone + " energy supports " + getCategoryOutcome(category, seed + 11) + " in unexpected ways."
-        };
+    public long getTotal() { return total.sum(); }
+    public long getMaleCount() { return male.sum(); }
+    public long getFemaleCount() { return female.sum(); }
+    public long getSignCount(ZodiacSign sign) { return signs[sign.ordinal()].sum(); }
 
-        return structures[seed % structures.length].toUpperCase();
+    public long getDayCount(int dayKey) {
+        DayBucket bucket = days.get(slot(dayKey));
+        return bucket != null && bucket.dayKey == dayKey ? bucket.count.sum() : 0;
     }
 
-    private String getCategorySubject(String category, int seed) {
-        String[][] subjects = {
-            {"romance", "connection", "attraction", "partnership", "intimacy", "affection", "emotion", "passion"}, // love
-            {"opportunity", "success", "advancement", "recognition", "growth", "leadership", "innovation", "achievement"}, // career
-            {"vitality", "wellness", "energy", "balance", "strength", "healing", "renewal", "harmony"}, // health
-            {"prosperity", "abundance", "wealth", "income", "investment", "savings", "financial growth", "resources"} // money
-        };
-        int categoryIndex = getCategoryIndex(category);
-        return subjects[categoryIndex][seed % subjects[categoryIndex].length];
+    public void writeJSON(JsonWriter writer) {
+        java.time.LocalDate today = java.time.LocalDate.now();
+        writer.beginObject()
+            .name("totalUsers").value(getTotal())
+            .name("maleUsers").value(getMaleCount())
+            .name("femaleUsers").value(getFemaleCount())
+            .name("todayConsultations").value(getDayCount(dayKey(today)))
+            .name("zodiacSigns").beginObject();
+        for (ZodiacSign sign : ZodiacSign.values()) {
+            writer.name(sign.getDisplayName()).value(getSignCount(sign));
+        }
+        writer.endObject().name("dailyConsultations").beginArray();
+        for (int i = 0; i < REPORTED_DAYS; i++) {
+            java.time.LocalDate day = today.minusDays(i);
+            writer.beginObject()
+                .name("date").value(day.toString())
+                .name("count").value(getDayCount(dayKey(day)))
+                .endObject();
+        }
+        writer.endArray().endObject();
     }
 
-    private String getCategoryAction(String category, int seed) {
-        String[][] actions = {
-            {"blossoms", "deepens", "emerges", "strengthens", "flourishes", "awakens", "transforms", "develops"}, // love
-            {"accelerates", "expands", "manifests", "develops", "progresses", "advances", "succeeds", "thrives"}, // career
-            {"improves", "strengthens", "restores", "energizes", "balances", "heals", "revitalizes", "harmonizes"}, // health
-            {"increases", "multiplies", "grows", "accumulates", "expands", "develops", "prospers", "flourishes"} // money
-        };
-        int categoryIndex = getCategoryIndex(category);
-        return actions[categoryIndex][seed % actions[categoryIndex].length];
+    // Returns null for days that already fell out of the window
+    private DayBucket dayBucket(int dayKey) {
+        int slot = slot(dayKey);
+        while (true) {
+            DayBucket bucket = days.get(slot);
+            if (bucket != null && bucket.dayKey == dayKey) return bucket;
+            if (bucket != null && bucket.dayKey > dayKey) return null;
+            DayBucket fresh = new DayBucket(dayKey);
+            if (days.compareAndSet(slot, bucket, fresh)) return fresh;
+        }
     }
 
-    private String getCategoryOutcome(String category, int seed) {
-        String[][] outcomes = {
-            {"meaningful bonds", "lasting joy", "deep understanding", "emotional growth", "romantic fulfillment", "heart connections", "soul harmony", "true companionship"}, // love
-            {"professional growth", "career breakthroughs", "new opportunities", "skill development", "leadership roles", "financial rewards", "recognition", "success"}, // career
-            {"physical wellness", "mental clarity", "emotional balance", "renewed energy", "inner strength", "life vitality", "healing progress", "overall health"}, // health
-            {"financial stability", "wealth creation", "investment success", "income growth", "prosperity gains", "security building", "abundance flow", "money success"} // money
-        };
-        int categoryIndex = getCategoryIndex(category);
-        return outcomes[categoryIndex][seed % outcomes[categoryIndex].length];
+    private static int slot(int dayKey) {
+        long epochDay = java.time.LocalDate.of(dayKey / 10000, dayKey / 100 % 100, dayKey % 100).toEpochDay();
+        return (int) Math.floorMod(epochDay, (long) WINDOW_DAYS);
     }
 
-    private int getCategoryIndex(String category) {
-        return switch (category.toLowerCase()) {
-            case "love" -> 0;
-            case "career" -> 1;
-            case "health" -> 2;
-            case "money" -> 3;
-            default -> 0;
-        };
+    private static int dayKey(java.time.LocalDate date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
     }
+}
 
-    @SuppressWarnings("unused")
-    private String[] getSubjects(String category) {
-        return switch (category.toLowerCase()) {
-            case "love" -> new String[]{"Romance", "Passion", "Connection", "Attraction", "Intimacy", "Commitment", "Understanding", "Chemistry"};
-            case "career" -> new String[]{"Opportunity", "Recognition", "Growth", "Success", "Innovation", "Leadership", "Collaboration", "Achievement"};
-            case "health" -> new String[]{"Vitality", "Energy", "Wellness", "Balance", "Healing", "Strength", "Renewal", "Harmony"};
-            case "money" -> new String[]{"Prosperity", "Investment", "Income", "Savings", "Opportunity", "Growth", "Security", "Abundance"};
-            default -> new String[]{"Fortune", "Energy", "Growth", "Change", "Opportunity", "Success", "Balance", "Progress"};
-        };
+/**
+ * Append-only consultation log split into fixed-size segments. Writers reserve slots
+ * with an atomic increment and publish them in order, so readers can walk the
+ * published prefix without locks or copies. Each segment tracks the time span of its
+ * records so time-range scans can skip whole segments.
+ *
+ * <p>With the COLUMNAR layout a segment keeps no record objects: every field goes into a
+ * primitive column, generated ids are stored as numbers, names are dictionary-encoded,
+ * and {@link #get} returns a view over the row. That is roughly 50 bytes per consultation
+ * instead of a record, a user and their strings, and nothing grows per distinct user.
+ */
+class ConsultationLog implements Iterable<ConsultationRecord> {
+    static final int SEGMENT_SHIFT = 12;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    enum Layout {
+        OBJECTS,
+        COLUMNAR;
+
+        static Layout fromProperty(String value) {
+            return "columnar".equalsIgnoreCase(value) ? COLUMNAR : OBJECTS;
+        }
     }
 
+    private abstract static class Segment {
+        final AtomicLong minTime = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong maxTime = new AtomicLong(Long.MIN_VALUE);
 
+        boolean overlaps(long fromMillis, long toMillis) {
+            return minTime.get() <= toMillis && maxTime.get() >= fromMillis;
+        }
 
-    private String getCategoryEmoji(String category) {
-        return switch (category.toLowerCase()) {
-            case "love" -> "💕";
-            case "career" -> "🚀";
-            case "health" -> "💪";
-            case "money" -> "💰";
-            default -> "✨";
-        };
+        // Must make the slot visible to isWritten only once every field is stored. The row is
+        // the record's columnar encoding (null for the object layout); it is made before the
+        // slot is reserved, so storing cannot fail and leave a hole the published mark never passes
+        abstract void store(int slot, ConsultationRecord record, EncodedRow row);
+        abstract boolean isWritten(int slot);
+        abstract ConsultationRecord load(int slot);
     }
 
-    @SuppressWarnings("unused")
-    private String getDaySpecificContext(String category, int dayCode) {
-        String[][] contexts = {
-            // Love contexts
-            {"Someone special notices your unique qualities.", "Romantic timing aligns perfectly with your desires.", "Heart-to-heart conversations create lasting bonds.", "Love arrives through unexpected circumstances.", "Emotional walls dissolve naturally."},
-            // Career contexts  
-            {"Your expertise solves complex workplace challenges.", "Professional networks expand in meaningful ways.", "Creative approaches outperform traditional methods.", "Leadership opportunities recognize your potential.", "Collaborative efforts yield impressive results."},
-            // Health contexts
-            {"Mind-body connection strengthens through awareness.", "Natural healing accelerates your recovery process.", "Energy levels increase through positive lifestyle choices.", "Physical activity brings mental clarity.", "Nutritional awareness improves overall wellness."},
-            // Money contexts
-            {"Smart financial decisions create long-term stability.", "Investment opportunities align with your values.", "Resourcefulness turns challenges into profitable solutions.", "Multiple income streams develop naturally.", "Financial partnerships prove mutually beneficial."}
-        };
+    private static final class ObjectSegment extends Segment {
+        final AtomicReferenceArray<ConsultationRecord> records = new AtomicReferenceArray<>(SEGMENT_SIZE);
 
-        int categoryIndex = switch (category.toLowerCase()) {
-            case "love" -> 0;
-            case "career" -> 1; 
-            case "health" -> 2;
-            case "money" -> 3;
-            default -> 0;
-        };
+        @Override
+        void store(int slot, ConsultationRecord record, EncodedRow row) {
+            records.set(slot, record);
+        }
 
-        return contexts[categoryIndex][dayCode % contexts[categoryIndex].length];
+        @Override
+        boolean isWritten(int slot) {
+            return records.get(slot) != null;
+        }
+
+        @Override
+        ConsultationRecord load(int slot) {
+            return records.get(slot);
+        }
     }
 
-    @SuppressWarnings("unused")
-    private String[] getDynamicModifiers(String category, int seed) {
-        Map<String, String[]> modifiers = new HashMap<>();
+    private final class ColumnarSegment extends Segment {
+        final long[] timestamps = new long[SEGMENT_SIZE];
+        // Generated user ids as their 64-bit value; any other id as -(dictionary code + 2)
+        final long[] userIds = new long[SEGMENT_SIZE];
+        final int[] surnames = new int[SEGMENT_SIZE];
+        final int[] firstNames = new int[SEGMENT_SIZE];
+        final int[] middleInitials = new int[SEGMENT_SIZE];
+        final int[] suffixes = new int[SEGMENT_SIZE];
+        final short[] years = new short[SEGMENT_SIZE];
+        final int[] genders = new int[SEGMENT_SIZE];
+        // Generated prophecy ids as their 64-bit value; any other id as -(dictionary code + 2)
+        final long[] prophecyIds = new long[SEGMENT_SIZE];
+        // Sign ordinal + 1 in the low byte, month and day in the top two; written last, and
+        // zero until the slot is written
+        final AtomicIntegerArray attributes = new AtomicIntegerArray(SEGMENT_SIZE);
+
+        @Override
+        void store(int slot, ConsultationRecord record, EncodedRow row) {
+            timestamps[slot] = row.timestamp;
+            userIds[slot] = row.userId;
+            surnames[slot] = row.surname;
+            firstNames[slot] = row.firstName;
+            middleInitials[slot] = row.middleInitial;
+            suffixes[slot] = row.suffix;
+            years[slot] = row.year;
+            genders[slot] = row.gender;
+            prophecyIds[slot] = row.prophecyId;
+            attributes.set(slot, row.attributes);
+        }
 
-        modifiers.put("love", new String[]{
-            "A surprise connection may emerge through unexpected circumstances.",
-            "Pay attention to subtle signs and synchronicities in relationships.",
-            "Someone from your past may reappear with important messages.",
-            "New romantic energy enters through creative or spiritual activities.",
-            "Trust your heart's wisdom over logical relationship analysis.",
-            "Social gatherings bring meaningful romantic opportunities.",
-            "Digital communication holds special significance today.",
-            "Family connections influence your romantic choices positively."
-        });
+        @Override
+        boolean isWritten(int slot) {
+            return attributes.get(slot) != 0;
+        }
 
-        modifiers.put("career", new String[]{
-            "Hidden opportunities reveal themselves through casual conversations.",
-            "Your unique perspective solves complex workplace challenges.",
-            "Collaboration with distant colleagues brings breakthrough moments.",
-            "Industry changes create new pathways for advancement.",
-            "Your expertise attracts recognition from unexpected sources.",
-            "Creative solutions outperform traditional approaches today.",
-            "Professional networks expand through mutual interests.",
-            "Leadership skills emerge naturally in team situations."
-        });
+        @Override
+        ConsultationRecord load(int slot) {
+            return new Row(slot);
+        }
 
-        modifiers.put("health", new String[]{
-            "Mind-body connection strengthens through mindful practices.",
-            "Environmental changes support your wellness journey.",
-            "Energy levels fluctuate - honor your body's natural rhythms.",
-            "Healing happens through joyful movement and laughter.",
-            "Nutrition awareness leads to beneficial dietary adjustments.",
-            "Sleep patterns reveal important health information.",
-            "Social connections boost mental and emotional wellbeing.",
-            "Alternative healing methods show promising results."
-        });
+        private final class Row extends ConsultationRecord {
+            private final int slot;
 
-        modifiers.put("money", new String[]{
-            "Unexpected income sources appear through personal skills.",
-            "Wise spending decisions create long-term financial stability.",
-            "Investment opportunities arise through professional connections.",
-            "Resourcefulness turns limitations into creative solutions.",
-            "Value-based purchases align with your authentic priorities.",
-            "Financial partnerships require careful consideration and trust.",
-            "Technology platforms open new revenue possibilities.",
-            "Generosity creates positive financial energy circulation."
-        });
+            Row(int slot) {
+                this.slot = slot;
+            }
 
-        return modifiers.getOrDefault(category, new String[]{
-            "Today brings unique opportunities for growth and discovery.",
-            "Your intuition guides you toward beneficial choices.",
-            "Patience and persistence lead to meaningful progress."
-        });
-    }
+            /** A detached copy of the user; the registration timestamp is not stored. */
+            @Override
+            public User getUser() {
+                User user = new User();
+                user.setId(getUserId());
+                user.setSurname(getSurname());
+                user.setFirstName(getFirstName());
+                user.setMiddleInitial(getMiddleInitial());
+                user.setSuffix(getSuffix());
+                user.setGender(getGender());
+                user.setMonth(getMonth());
+                user.setDay(getDay());
+                user.setYear(getYear());
+                return user;
+            }
 
+            @Override
+            public Date getTimestamp() { return new Date(timestamps[slot]); }
+            @Override
+            public long getTimestampMillis() { return timestamps[slot]; }
+            @Override
+            public ZodiacSign getZodiacSign() { return ZodiacSign.fromOrdinal((attributes.get(slot) & 0xFF) - 1); }
+            @Override
+            public String getUserId() {
+                long id = userIds[slot];
+                return id > 0 ? IdGenerator.format(InMemoryDataPersistence.USER_ID_PREFIX, id)
+                    : userIdDictionary.decode((int) (-id - 2));
+            }
+            @Override
+            public String getSurname() { return nameDictionary.decode(surnames[slot]); }
+            @Override
+            public String getFirstName() { return nameDictionary.decode(firstNames[slot]); }
+            @Override
+            public String getMiddleInitial() { return nameDictionary.decode(middleInitials[slot]); }
+            @Override
+            public String getSuffix() { return nameDictionary.decode(suffixes[slot]); }
+            @Override
+            public String getGender() { return genderDictionary.decode(genders[slot]); }
+            @Override
+            public int getMonth() { return attributes.get(slot) >>> 16 & 0xFF; }
+            @Override
+            public int getDay() { return attributes.get(slot) >>> 24; }
+            @Override
+            public int getYear() { return years[slot]; }
+
+            @Override
+            public String getProphecyId() {
+                long id = prophecyIds[slot];
+                return id > 0 ? IdGenerator.format(ConsultationRecord.PROPHECY_ID_PREFIX, id)
+                    : prophecyIdDictionary.decode((int) (-id - 2));
+            }
+        }
+    }
 
-    private int generateSeed(User user, Date date) {
-        // Create unique daily seed that changes each day but stays consistent within the day
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        String dateString = dateFormat.format(date);
+    // One record's column values, dictionary codes included
+    private static final class EncodedRow {
+        long timestamp;
+        long userId;
+        int surname;
+        int firstName;
+        int middleInitial;
+        int suffix;
+        short year;
+        int gender;
+        long prophecyId;
+        int attributes;
+    }
 
-        // Enhanced personalization factors
-        int dayOfWeek = date.getDay();
-        int dayOfMonth = date.getDate();
-        int weekOfYear = getWeekOfYear(date);
+    private final int generation;
+    private final Layout layout;
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger published = new AtomicInteger();
+    // Copy-on-write directory; a published array is never modified
+    private final AtomicReference<Segment[]> segments = new AtomicReference<>(new Segment[16]);
+    // Only used by the COLUMNAR layout; user and prophecy ids only for ids IdGenerator did not make
+    private final StringDictionary userIdDictionary;
+    private final StringDictionary nameDictionary;
+    private final StringDictionary genderDictionary;
+    private final StringDictionary prophecyIdDictionary;
+
+    public ConsultationLog(int generation) {
+        this(generation, Layout.OBJECTS);
+    }
 
-        // Combine multiple factors for richer variation
-        String seedString = user.getSurname() + user.getFirstName() + 
-                           user.getMonth() + user.getDay() + user.getYear() + 
-                           dateString + dayOfWeek + weekOfYear;
+    public ConsultationLog(int generation, Layout layout) {
+        this.generation = generation;
+        this.layout = layout;
+        boolean columnar = layout == Layout.COLUMNAR;
+        this.userIdDictionary = columnar ? new StringDictionary() : null;
+        this.nameDictionary = columnar ? new StringDictionary() : null;
+        this.genderDictionary = columnar ? new StringDictionary() : null;
+        this.prophecyIdDictionary = columnar ? new StringDictionary() : null;
+    }
 
-        // Add time-of-day factor for some intra-day variation
-        int timeFactor = new Date().getHours() / 4; // Changes 6 times per day
+    public int getGeneration() { return generation; }
+    public Layout getLayout() { return layout; }
 
-        return Math.abs((seedString + timeFactor + dayOfMonth).hashCode());
+    /** Number of records in the published prefix; every index below it is readable. */
+    public int size() {
+        return published.get();
     }
 
-    private int getWeekOfYear(Date date) {
-        java.util.Calendar cal = java.util.Calendar.getInstance();
-        cal.setTime(date);
-        return cal.get(java.util.Calendar.WEEK_OF_YEAR);
+    public void append(ConsultationRecord record) {
+        // Everything that can reject the record happens before a slot is taken
+        EncodedRow row = encode(record);
+        long time = record.getTimestampMillis();
+        int index = reserved.getAndIncrement();
+        if (index < 0) {
+            reserved.decrementAndGet();
+            throw new IllegalStateException("Consultation log is full");
+        }
+        Segment segment = segment(index >>> SEGMENT_SHIFT);
+        // Time bounds are widened before the slot is published so scans never skip it
+        segment.minTime.accumulateAndGet(time, Math::min);
+        segment.maxTime.accumulateAndGet(time, Math::max);
+        segment.store(index & SEGMENT_MASK, record, row);
+        advancePublished();
     }
 
-    private Map<String, String[]> initializeProphecyTemplates() {
-        Map<String, String[]> templates = new HashMap<>();
+    /**
+     * Throws IllegalArgumentException if append would reject the record, for callers that
+     * must not write anything else (such as a log record) for it first.
+     */
+    public void checkStorable(ConsultationRecord record) {
+        encode(record);
+    }
 
-        // Simple, clear prophecies that change daily
-        templates.put("Aries", new String[]{
-            "Today brings new energy and exciting opportunities. Take action on your ideas.",
-            "Your leadership skills shine bright today. Others will follow your lead.",
-            "A bold decision will open doors. Trust your instincts and move forward.",
-            "Today is perfect for starting something new. Your confidence attracts success.",
-            "Challenges today will make you stronger. Face them with courage."
-        });
+    // Null for the object layout. New dictionary entries for a rejected record are harmless
+    private EncodedRow encode(ConsultationRecord record) {
+        if (record.getTimestamp() == null || record.getZodiacSign() == null) {
+            throw new IllegalArgumentException("Consultation needs a timestamp and a zodiac sign");
+        }
+        if (layout != Layout.COLUMNAR) return null;
+        EncodedRow row = new EncodedRow();
+        row.timestamp = record.getTimestampMillis();
+        String userId = record.getUserId();
+        long userKey = IdGenerator.parse(InMemoryDataPersistence.USER_ID_PREFIX, userId);
+        row.userId = userKey != 0 ? userKey : -(userIdDictionary.encode(userId) + 2L);
+        row.surname = nameDictionary.encode(record.getSurname());
+        row.firstName = nameDictionary.encode(record.getFirstName());
+        row.middleInitial = nameDictionary.encode(record.getMiddleInitial());
+        row.suffix = nameDictionary.encode(record.getSuffix());
+        row.year = (short) checkRange(record.getYear(), Short.MIN_VALUE, Short.MAX_VALUE, "year");
+        row.gender = genderDictionary.encode(record.getGender());
+        String prophecyId = record.getProphecyId();
+        long id = IdGenerator.parse(ConsultationRecord.PROPHECY_ID_PREFIX, prophecyId);
+        row.prophecyId = id != 0 ? id : -(prophecyIdDictionary.encode(prophecyId) + 2L);
+        row.attributes = (record.getZodiacSign().ordinal() + 1)
+            | checkRange(record.getMonth(), 0, 0xFF, "month") << 16
+            | checkRange(record.getDay(), 0, 0xFF, "day") << 24;
+        return row;
+    }
 
-        templates.put("Taurus", new String[]{
-            "Slow and steady wins today. Focus on building something lasting.",
-            "Money matters look promising. A financial opportunity may appear.",
-            "Your practical nature solves problems others can't. Use this gift.",
-            "Today rewards patience and hard work. Keep pushing forward.",
-            "Beauty and comfort surround you today. Enjoy life's simple pleasures."
-        });
+    public ConsultationRecord get(int index) {
+        if (index < 0 || index >= published.get()) throw new IndexOutOfBoundsException(index);
+        return segments.get()[index >>> SEGMENT_SHIFT].load(index & SEGMENT_MASK);
+    }
 
-        templates.put("Gemini", new String[]{
-            "Communication is your superpower today. Share your ideas freely.",
-            "Learning something new brings unexpected benefits. Stay curious.",
-            "Multiple opportunities appear. Choose the one that excites you most.",
-            "Your social skills open important doors. Network and connect.",
-            "Quick thinking saves the day. Trust your mental agility."
-        });
+    /**
+     * Returns the first index at or after {@code index} whose segment may hold records in
+     * the time range, or {@code end} when no such segment remains.
+     */
+    public int seekTimeRange(int index, int end, long fromMillis, long toMillis) {
+        Segment[] directory = segments.get();
+        while (index < end && !directory[index >>> SEGMENT_SHIFT].overlaps(fromMillis, toMillis)) {
+            index = ((index >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+        }
+        return Math.min(index, end);
+    }
 
-        templates.put("Cancer", new String[]{
-            "Family and home bring joy today. Nurture your closest relationships.",
-            "Your intuition is especially strong. Listen to your inner voice.",
-            "Emotional connections deepen. Someone important enters your life.",
-            "Helping others brings unexpected rewards. Your kindness matters.",
-            "Past experiences guide today's decisions. Trust your wisdom."
-        });
+    /** Unmodifiable view of the records published so far. */
+    public List<ConsultationRecord> snapshot() {
+        int size = published.get();
+        return new AbstractList<>() {
+            @Override
+            public ConsultationRecord get(int index) {
+                if (index >= size) throw new IndexOutOfBoundsException(index);
+                return ConsultationLog.this.get(index);
+            }
 
-        templates.put("Leo", new String[]{
-            "Your natural charisma attracts positive attention. Shine brightly.",
-            "Creative projects flourish under today's energy. Express yourself boldly.",
-            "Leadership opportunities present themselves. Step into the spotlight.",
-            "Your generous spirit brings good karma. Give freely to receive abundantly.",
-            "Recognition for past efforts finally arrives. Enjoy your moment."
-        });
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
 
-        templates.put("Virgo", new String[]{
-            "Attention to detail pays off handsomely today. Perfection is possible.",
-            "Organizing your life brings clarity and peace. Clean up loose ends.",
-            "Your helpful nature solves others' problems. This builds strong bonds.",
-            "Health and wellness deserve focus today. Take care of your body.",
-            "Practical solutions emerge for complex problems. Trust your logic."
-        });
+    @Override
+    public Iterator<ConsultationRecord> iterator() {
+        return snapshot().iterator();
+    }
 
-        templates.put("Libra", new String[]{
-            "Balance in all things brings harmony today. Seek the middle ground.",
-            "Partnerships flourish under today's energy. Collaboration is key.",
-            "Beauty and art inspire new possibilities. Let creativity flow.",
-            "Fairness and justice guide your decisions. Do what's right.",
-            "Social connections bring unexpected opportunities. Be diplomatic."
-        });
+    // Moves the published mark over every contiguous written slot, helping slower writers
+    private void advancePublished() {
+        int mark = published.get();
+        while (mark < reserved.get()) {
+            Segment[] directory = segments.get();
+            int segmentIndex = mark >>> SEGMENT_SHIFT;
+            if (segmentIndex >= directory.length || directory[segmentIndex] == null
+                    || !directory[segmentIndex].isWritten(mark & SEGMENT_MASK)) {
+                return;
+            }
+            published.compareAndSet(mark, mark + 1);
+            mark = published.get();
+        }
+    }
 
-        templates.put("Scorpio", new String[]{
-            "Deep insights reveal hidden truths today. Trust your instincts.",
-            "Transformation begins with small changes. Start your evolution now.",
-            "Your intensity attracts powerful allies. Use this magnetic energy.",
-            "Secrets may be revealed that change everything. Stay prepared.",
-            "Emotional depth strengthens important relationships. Be vulnerable."
-        });
+    private Segment segment(int segmentIndex) {
+        while (true) {
+            Segment[] directory = segments.get();
+            if (segmentIndex < directory.length && directory[segmentIndex] != null) {
+                return directory[segmentIndex];
+            }
+            Segment[] grown = Arrays.copyOf(directory, Math.max(directory.length, Integer.highestOneBit(segmentIndex) * 2));
+            for (int i = 0; i <= segmentIndex; i++) {
+                if (grown[i] == null) grown[i] = layout == Layout.COLUMNAR ? new ColumnarSegment() : new ObjectSegment();
+            }
+            if (segments.compareAndSet(directory, grown)) return grown[segmentIndex];
+        }
+    }
 
-        templates.put("Sagittarius", new String[]{
-            "Adventure calls and new horizons beckon. Expand your world today.",
-            "Learning and teaching bring mutual benefits. Share your knowledge.",
-            "Optimism opens doors that seemed permanently closed. Stay positive.",
-            "Travel or foreign connections bring good fortune. Think globally.",
-            "Your philosophical nature attracts like-minded souls. Connect deeply."
-        });
+    private static int checkRange(int value, int min, int max, String column) {
+        if (value < min || value > max) throw new IllegalArgumentException("Value out of range for " + column + " column: " + value);
+        return value;
+    }
+}
 
-        templates.put("Capricorn", new String[]{
-            "Hard work finally pays off in tangible ways. Your efforts matter.",
-            "Leadership positions become available. You're ready to climb higher.",
-            "Long-term planning shows positive results. Stay focused on goals.",
-            "Responsibility brings respect and recognition. Embrace your duties.",
-            "Traditional methods work better than trendy shortcuts. Be classic."
-        });
+/**
+ * Append-only mapping between strings and dense int codes, with -1 standing for null.
+ * Lookups of known strings are lock-free; new strings are added under a lock. A code is
+ * decodable by any thread that learned it through a happens-before edge, such as a
+ * published log slot.
+ */
+class StringDictionary {
+    private static final int NULL_CODE = -1;
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+
+    public int encode(String value) {
+        if (value == null) return NULL_CODE;
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
 
-        templates.put("Aquarius", new String[]{
-            "Innovation and originality set you apart today. Be uniquely you.",
-            "Group activities bring unexpected benefits. Join like-minded people.",
-            "Technology or science offers interesting opportunities. Stay current.",
-            "Your humanitarian spirit attracts support for good causes. Lead change.",
-            "Friendship proves more valuable than money today. Cherish connections."
-        });
+    public String decode(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
 
-        templates.put("Pisces", new String[]{
-            "Your imagination creates beautiful possibilities today. Dream big.",
-            "Spiritual or artistic pursuits bring deep satisfaction. Feed your soul.",
-            "Compassion for others opens hearts and minds. Show empathy.",
-            "Water-related activities bring peace and clarity. Stay fluid.",
-            "Your psychic abilities are heightened today. Trust your feelings."
-        });
+    public int size() {
+        return codes.size();
+    }
 
-        return templates;
+    private synchronized int add(String value) {
+        Integer existing = codes.get(value);
+        if (existing != null) return existing;
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        // The array is published before the code, so a reader holding the code can find it
+        values = current;
+        codes.put(value, size);
+        return size++;
     }
 }
 
-class UserValidator implements Validator {
-    @Override
-    public boolean validate(Object data) {
-        if (!(data instanceof User)) return false;
-        User user = (User) data;
-
-        return user.getSurname() != null && !user.getSurname().trim().isEmpty() &&
-               user.getFirstName() != null && !user.getFirstName().trim().isEmpty() &&
-               user.getGender() != null && !user.getGender().trim().isEmpty() &&
-               user.getMonth() >= 1 && user.getMonth() <= 12 &&
-               user.getDay() >= 1 && user.getDay() <= 31 &&
-               user.getYear() >= 1920 && user.getYear() <= 2024 &&
-               Pattern.matches("^[A-Z\\s]*$", user.getSurname()) &&
-               Pattern.matches("^[A-Z\\s]*$", user.getFirstName());
+/**
+ * Parsed /api/admin/query parameters for users: a surname prefix, a zodiac sign, a birth
+ * date given as yyyy, yyyy-MM or yyyy-MM-dd, and a gender. Birth dates are compared as
+ * yyyymmdd ints.
+ */
+class UserQuery {
+    private static final Pattern BIRTH_DATE = Pattern.compile("\\d{4}(-\\d{2}(-\\d{2})?)?");
+
+    private final String namePrefix;
+    private final ZodiacSign zodiacSign;
+    private final int bornFrom;
+    private final int bornTo;
+    private final String gender;
+
+    public UserQuery(String namePrefix, ZodiacSign zodiacSign, int bornFrom, int bornTo, String gender) {
+        this.namePrefix = namePrefix;
+        this.zodiacSign = zodiacSign;
+        this.bornFrom = bornFrom;
+        this.bornTo = bornTo;
+        this.gender = gender;
     }
 
-    @Override
-    public List<String> getValidationErrors(Object data) {
-        List<String> errors = new ArrayList<>();
-        if (!(data instanceof User)) {
-            errors.add("Invalid data type");
-            return errors;
-        }
-
-        User user = (User) data;
-        if (user.getSurname() == null || user.getSurname().trim().isEmpty()) {
-            errors.add("Surname is required");
+    public static UserQuery fromParameters(String name, String sign, String born, String gender) {
+        ZodiacSign zodiacSign = null;
+        if (sign != null) {
+            zodiacSign = ZodiacSign.fromName(sign);
+            if (zodiacSign == null) throw new IllegalArgumentException("Unknown zodiac sign");
         }
-        if (user.getFirstName() == null || user.getFirstName().trim().isEmpty()) {
-            errors.add("First name is required");
+        int bornFrom = Integer.MIN_VALUE;
+        int bornTo = Integer.MAX_VALUE;
+        if (born != null) {
+            if (!BIRTH_DATE.matcher(born).matches()) {
+                throw new IllegalArgumentException("Invalid birth date, expected yyyy, yyyy-MM or yyyy-MM-dd");
+            }
+            int key = Integer.parseInt(born.replace("-", ""));
+            if (born.length() == 4) {
+                bornFrom = key * 10000;
+                bornTo = bornFrom + 1231;
+            } else if (born.length() == 7) {
+                bornFrom = key * 100;
+                bornTo = bornFrom + 31;
+            } else {
+                bornFrom = key;
+                bornTo = key;
+            }
         }
-        if (user.getMonth() < 1 || user.getMonth() > 12) {
-            errors.add("Invalid month");
+        return new UserQuery(name != null && !name.isEmpty() ? name.toUpperCase(Locale.ROOT) : null, zodiacSign,
+            bornFrom, bornTo, gender != null ? gender.toUpperCase(Locale.ROOT) : null);
+    }
+
+    public String getNamePrefix() { return namePrefix; }
+    public ZodiacSign getZodiacSign() { return zodiacSign; }
+    public int getBornFrom() { return bornFrom; }
+    public int getBornTo() { return bornTo; }
+    public boolean hasBirthDateRange() { return bornFrom != Integer.MIN_VALUE; }
+
+    public boolean matches(User user) {
+        if (namePrefix != null && (user.getSurname() == null || !user.getSurname().startsWith(namePrefix))) return false;
+        if (zodiacSign != null && ZodiacSign.fromBirthday(user.getMonth(), user.getDay()) != zodiacSign) return false;
+        if (gender != null && !gender.equals(user.getGender())) return false;
+        int birthDate = UserIndex.birthDateKey(user);
+        return birthDate >= bornFrom && birthDate <= bornTo;
+    }
+}
+
+/**
+ * Secondary indexes over users, maintained on every save: a sorted surname index for
+ * prefix searches, a sorted birth date index for date ranges, and one set per zodiac sign.
+ * Sorted keys end with the user id so users sharing a name or birthday stay distinct.
+ */
+class UserIndex {
+    enum Access {
+        NAME("name"),
+        BIRTH_DATE("birthDate"),
+        SIGN("sign"),
+        SCAN("scan");
+
+        private final String label;
+
+        Access(String label) {
+            this.label = label;
         }
-        if (user.getDay() < 1 || user.getDay() > 31) {
-            errors.add("Invalid day");
+
+        public String getLabel() { return label; }
+    }
+
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final char KEY_END = '\uffff';
+
+    private final ConcurrentSkipListMap<String, User> byName = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, User> byBirthDate = new ConcurrentSkipListMap<>();
+    private final List<ConcurrentSkipListMap<String, User>> bySign = new ArrayList<>();
+
+    public UserIndex() {
+        for (int i = 0; i < ZodiacSign.values().length; i++) {
+            bySign.add(new ConcurrentSkipListMap<>());
         }
+    }
 
-        return errors;
+    public void add(User user) {
+        byName.put(nameKey(user), user);
+        byBirthDate.put(birthDateKey(user) + KEY_SEPARATOR + user.getId(), user);
+        bySign.get(signOf(user).ordinal()).put(user.getId(), user);
     }
-}
 
-class UserCreationTransaction extends Transaction {
-    private final User user;
-    private final DataPersistence dataPersistence;
-    private final ConsultationRecord record;
-    private final InMemoryDataPersistence memoryPersistence;
+    public void remove(User user) {
+        byName.remove(nameKey(user), user);
+        byBirthDate.remove(birthDateKey(user) + KEY_SEPARATOR + user.getId(), user);
+        bySign.get(signOf(user).ordinal()).remove(user.getId(), user);
+    }
 
-    public UserCreationTransaction(User user, DataPersistence dataPersistence, 
-                                  ConsultationRecord record, InMemoryDataPersistence memoryPersistence) {
-        this.user = user;
-        this.dataPersistence = dataPersistence;
-        this.record = record;
-        this.memoryPersistence = memoryPersistence;
+    /** Picks the index expected to yield the fewest candidates for the query. */
+    public Access plan(UserQuery query) {
+        if (query.getNamePrefix() != null) return Access.NAME;
+        // Even a whole birth year spans far fewer users than a sign, which covers a twelfth of them
+        if (query.hasBirthDateRange()) return Access.BIRTH_DATE;
+        return query.getZodiacSign() != null ? Access.SIGN : Access.SCAN;
     }
 
-    @Override
-    public void execute() throws Exception {
-        dataPersistence.saveUser(user);
-        memoryPersistence.addConsultation(record);
-    }
+    /**
+     * Candidates for the query from the given index, in index order. Callers still apply
+     * {@link UserQuery#matches} for the predicates the index does not cover.
+     */
+    public Iterable<User> candidates(Access access, UserQuery query, Iterable<User> allUsers) {
+        return switch (access) {
+            case NAME -> byName.subMap(query.getNamePrefix(), true, query.getNamePrefix() + KEY_END, true).values();
+            case BIRTH_DATE -> query.getZodiacSign() != null
+                ? bornInSign(query.getZodiacSign(), query.getBornFrom(), query.getBornTo())
+                : bornBetween(query.getBornFrom(), query.getBornTo());
+            case SIGN -> bySign.get(query.getZodiacSign().ordinal()).values();
+            case SCAN -> allUsers;
+        };
+    }
+
+    private Collection<User> bornBetween(int from, int to) {
+        return byBirthDate.subMap(from + String.valueOf(KEY_SEPARATOR), true, to + String.valueOf(KEY_END), true).values();
+    }
+
+    // Narrows a birth date range to the sign's days within each year it covers
+    private Iterable<User> bornInSign(ZodiacSign sign, int from, int to) {
+        int firstYear = from / 10000;
+        int lastYear = to / 10000;
+        if (lastYear - firstYear > 10) return bornBetween(from, to);
+
+        List<Collection<User>> windows = new ArrayList<>();
+        for (int year = firstYear; year <= lastYear; year++) {
+            int base = year * 10000;
+            if (sign.getStartKey() <= sign.getEndKey()) {
+                addWindow(windows, from, to, base + sign.getStartKey(), base + sign.getEndKey());
+            } else {
+                addWindow(windows, from, to, base + 101, base + sign.getEndKey());
+                addWindow(windows, from, to, base + sign.getStartKey(), base + 1231);
+            }
+        }
+        return () -> new Iterator<>() {
+            private final Iterator<Collection<User>> remaining = windows.iterator();
+            private Iterator<User> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && remaining.hasNext()) {
+                    current = remaining.next().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public User next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    private void addWindow(List<Collection<User>> windows, int from, int to, int windowStart, int windowEnd) {
+        int start = Math.max(from, windowStart);
+        int end = Math.min(to, windowEnd);
+        if (start <= end) windows.add(bornBetween(start, end));
+    }
+
+    static int birthDateKey(User user) {
+        return user.getYear() * 10000 + user.getMonth() * 100 + user.getDay();
+    }
+
+    private static ZodiacSign signOf(User user) {
+        return ZodiacSign.fromBirthday(user.getMonth(), user.getDay());
+    }
+
+    private static String nameKey(User user) {
+        return (user.getSurname() != null ? user.getSurname() : "") + KEY_SEPARATOR
+            + (user.getFirstName() != null ? user.getFirstName() : "") + KEY_SEPARATOR + user.getId();
+    }
+}
+
+/**
+ * Lock-free generator of unique, increasing 64-bit ids: 41 bits of milliseconds since
+ * 2024-01-01, 10 bits of node id and 12 bits of sequence. When a millisecond's sequence
+ * runs out, or the clock steps back, ids borrow from the following millisecond rather
+ * than waiting, so they never repeat and never decrease.
+ */
+class IdGenerator {
+    static final long EPOCH_MILLIS = 1704067200000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final IdGenerator SHARED = new IdGenerator(Integer.getInteger("zodiac.nodeId", 0));
+
+    private final long nodeBits;
+    // Millisecond and sequence of the last id, packed as (millis << SEQUENCE_BITS) | sequence
+    private final AtomicLong last = new AtomicLong();
+
+    public IdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    /** The generator for this process, configured by the zodiac.nodeId property. */
+    public static IdGenerator shared() {
+        return SHARED;
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long next = last.accumulateAndGet(now, (previous, current) -> Math.max(current, previous + 1));
+        return (next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | nodeBits | (next & SEQUENCE_MASK);
+    }
+
+    /** Makes every later id greater than the given one, e.g. after restoring persisted ids. */
+    public void advancePast(long id) {
+        long state = (id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS | (id & SEQUENCE_MASK);
+        last.accumulateAndGet(state, Math::max);
+    }
+
+    public static String format(String prefix, long id) {
+        return prefix + id;
+    }
+
+    /** Returns the id of a string made by {@link #format}, or 0 for any other string. */
+    public static long parse(String prefix, String value) {
+        int length = value != null ? value.length() : 0;
+        int digits = length - prefix.length();
+        if (digits < 1 || digits > 19 || !value.startsWith(prefix) || value.charAt(prefix.length()) == '0') return 0;
+        long id = 0;
+        for (int i = prefix.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return 0;
+            id = id * 10 + (c - '0');
+            if (id < 0) return 0;
+        }
+        return id;
+    }
+}
+
+/**
+ * Concurrent open-addressing map from non-zero long keys to users, split into stripes.
+ * Writers lock their stripe; readers never lock. A slot's value is stored before its
+ * key, so a reader that finds the key always sees a user. Entries are never removed
+ * individually, only all at once by {@link #clear}.
+ */
+class LongUserMap implements Iterable<User> {
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<User> values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+
+        int find(long key) {
+            int slot = hash(key) & mask;
+            while (true) {
+                long current = keys.get(slot);
+                if (current == key || current == 0) return slot;
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    private static final class Stripe {
+        volatile Table table = new Table(INITIAL_CAPACITY);
+        int size;
+
+        User get(long key) {
+            Table current = table;
+            int slot = current.find(key);
+            return current.keys.get(slot) == key ? current.values.get(slot) : null;
+        }
+
+        synchronized User update(long key, UnaryOperator<User> remapping) {
+            Table current = table;
+            int slot = current.find(key);
+            boolean present = current.keys.get(slot) == key;
+            User previous = present ? current.values.get(slot) : null;
+            User user = Objects.requireNonNull(remapping.apply(previous));
+            if (present) {
+                current.values.set(slot, user);
+                return previous;
+            }
+            // Resize at a load factor of one half to keep probe runs short
+            if ((size + 1) * 2 > current.keys.length()) {
+                current = resize(current);
+                slot = current.find(key);
+            }
+            current.values.set(slot, user);
+            current.keys.set(slot, key);
+            size++;
+            return null;
+        }
+
+        synchronized void clear() {
+            table = new Table(INITIAL_CAPACITY);
+            size = 0;
+        }
+
+        private Table resize(Table current) {
+            Table grown = new Table(current.keys.length() * 2);
+            for (int i = 0; i < current.keys.length(); i++) {
+                long key = current.keys.get(i);
+                if (key == 0) continue;
+                int slot = grown.find(key);
+                grown.values.set(slot, current.values.get(i));
+                grown.keys.set(slot, key);
+            }
+            table = grown;
+            return grown;
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public LongUserMap() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public User get(long key) {
+        return key != 0 ? stripe(key).get(key) : null;
+    }
+
+    /**
+     * Replaces the user under the key with the result of the remapping function, which
+     * receives the current user or null. Runs under the stripe lock, so updates of one
+     * key never interleave. Returns the previous user.
+     */
+    public User update(long key, UnaryOperator<User> remapping) {
+        if (key == 0) throw new IllegalArgumentException("Key must not be zero");
+        return stripe(key).update(key, remapping);
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /** Weakly consistent iteration over the users, stripe by stripe. */
+    @Override
+    public Iterator<User> iterator() {
+        return new Iterator<>() {
+            private int stripe = -1;
+            private Table table;
+            private int slot;
+            private User next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public User next() {
+                if (next == null) throw new NoSuchElementException();
+                User user = next;
+                next = advance();
+                return user;
+            }
+
+            private User advance() {
+                while (true) {
+                    if (table == null || slot >= table.keys.length()) {
+                        if (++stripe >= STRIPES) return null;
+                        table = stripes[stripe].table;
+                        slot = 0;
+                        continue;
+                    }
+                    int current = slot++;
+                    if (table.keys.get(current) != 0) return table.values.get(current);
+                }
+            }
+        };
+    }
+
+    private Stripe stripe(long key) {
+        return stripes[(hash(key) >>> 28) & (STRIPES - 1)];
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
+
+class InMemoryDataPersistence implements DataPersistence {
+    static final String USER_ID_PREFIX = "USER_";
+
+    // The user maps and their index, replaced together by clearAllData so a save racing a
+    // clear lands wholly in the old tables or wholly in the new ones
+    private static final class UserTables {
+        final LongUserMap byKey = new LongUserMap();
+        // Users whose ids predate the 64-bit format, restored from older data files
+        final Map<String, User> legacy = new ConcurrentHashMap<>();
+        final UserIndex index = new UserIndex();
+
+        User get(String id) {
+            long key = IdGenerator.parse(USER_ID_PREFIX, id);
+            return key != 0 ? byKey.get(key) : (id != null ? legacy.get(id) : null);
+        }
+
+        int size() {
+            return byKey.size() + legacy.size();
+        }
+
+        Iterator<User> iterator() {
+            Iterator<User> old = legacy.values().iterator();
+            Iterator<User> current = byKey.iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return current.hasNext() || old.hasNext();
+                }
+
+                @Override
+                public User next() {
+                    return current.hasNext() ? current.next() : old.next();
+                }
+            };
+        }
+    }
+
+    private volatile UserTables users = new UserTables();
+    // Replaced with a log of the next generation by clearAllData, so cursors into the old one expire
+    private volatile ConsultationLog consultations;
+    private volatile ConsultationStats stats = new ConsultationStats();
+
+    public InMemoryDataPersistence() {
+        this(ConsultationLog.Layout.OBJECTS);
+    }
+
+    public InMemoryDataPersistence(ConsultationLog.Layout layout) {
+        this.consultations = new ConsultationLog(0, layout);
+    }
+
+    @Override
+    public void saveUser(User user) {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        storeUser(user);
+        commit(event, "saveUser", 1);
+    }
+
+    private void storeUser(User user) {
+        if (user.getId() == null) {
+            user.setId(generateUserId());
+        }
+        long key = IdGenerator.parse(USER_ID_PREFIX, user.getId());
+        UserTables tables = users;
+        // Index updates run inside the map update so saves of the same id cannot interleave
+        UnaryOperator<User> replace = previous -> {
+            if (previous != null) tables.index.remove(previous);
+            tables.index.add(user);
+            return user;
+        };
+        if (key != 0) {
+            tables.byKey.update(key, replace);
+        } else {
+            tables.legacy.compute(user.getId(), (id, previous) -> replace.apply(previous));
+        }
+    }
+
+    @Override
+    public User getUserById(String id) {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        User user = users.get(id);
+        commit(event, "getUserById", user != null ? 1 : 0);
+        return user;
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        UserTables tables = users;
+        List<User> all = new ArrayList<>(tables.size());
+        tables.byKey.forEach(all::add);
+        all.addAll(tables.legacy.values());
+        commit(event, "getAllUsers", all.size());
+        return all;
+    }
+
+    @Override
+    public synchronized void clearAllData() {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        users = new UserTables();
+        stats = new ConsultationStats();
+        consultations = new ConsultationLog(consultations.getGeneration() + 1, consultations.getLayout());
+        commit(event, "clearAllData", 0);
+    }
+
+    @Override
+    public boolean userExists(String id) {
+        return getUserById(id) != null;
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public void addConsultation(ConsultationRecord record) {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        storeConsultation(record);
+        commit(event, "addConsultation", 1);
+    }
+
+    private void storeConsultation(ConsultationRecord record) {
+        consultations.append(record);
+        stats.record(record);
+    }
+
+    /** Saves the user of each record followed by the record, as one batch. */
+    public void saveAll(List<ConsultationRecord> records) {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        for (ConsultationRecord record : records) {
+            storeUser(record.getUser());
+            storeConsultation(record);
+        }
+        commit(event, "saveAll", records.size());
+    }
+
+    private static void commit(PersistenceEvent event, String operation, int records) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.records = records;
+            event.commit();
+        }
+    }
+
+    public List<ConsultationRecord> getAllConsultations() {
+        return consultations.snapshot();
+    }
+
+    public ConsultationLog getConsultationLog() {
+        return consultations;
+    }
+
+    public ConsultationStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Users matching the query, read lazily from the index chosen by {@link #planUserQuery}.
+     * The iteration is weakly consistent with concurrent saves.
+     */
+    public Iterator<User> findUsers(UserQuery query, UserIndex.Access access) {
+        UserTables tables = users;
+        Iterator<User> candidates = tables.index.candidates(access, query, tables::iterator).iterator();
+        return new Iterator<>() {
+            private User next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public User next() {
+                if (next == null) throw new NoSuchElementException();
+                User user = next;
+                next = advance();
+                return user;
+            }
+
+            // Skips users replaced or cleared since the index entry was made
+            private User advance() {
+                while (candidates.hasNext()) {
+                    User user = candidates.next();
+                    if (query.matches(user) && tables.get(user.getId()) == user) return user;
+                }
+                return null;
+            }
+        };
+    }
+
+    public UserIndex.Access planUserQuery(UserQuery query) {
+        return users.index.plan(query);
+    }
+
+    protected String generateUserId() {
+        return IdGenerator.format(USER_ID_PREFIX, IdGenerator.shared().nextId());
+    }
+}
+
+/**
+ * Write-ahead log made of preallocated, memory-mapped segment files. Records are framed
+ * as [length][crc32][payload]; a zero length marks the end of a segment. Durability is
+ * governed by the fsync policy, and under ALWAYS concurrent writers share one force.
+ */
+class WriteAheadLog implements Closeable {
+    enum FsyncPolicy {
+        // Each append waits until its bytes are forced; concurrent appends share a force
+        ALWAYS,
+        // A background thread forces dirty pages on a fixed interval
+        INTERVAL,
+        // Pages are left to the OS; survives process crashes but not power loss
+        NEVER;
+
+        static FsyncPolicy fromProperty(String value) {
+            if ("always".equalsIgnoreCase(value)) return ALWAYS;
+            if ("never".equalsIgnoreCase(value)) return NEVER;
+            return INTERVAL;
+        }
+    }
+
+    interface RecordHandler {
+        void handle(DataInputStream record) throws IOException;
+    }
+
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final class Segment {
+        final int number;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int written;
+        int forced;
+
+        Segment(int number, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final FsyncPolicy policy;
+    private final long intervalMillis;
+    private final Runnable onSegmentRolled;
+    private final CRC32 crc = new CRC32();
+    private final Object flushMonitor = new Object();
+    private final Thread flusher;
+
+    private Segment current;
+    // Logical positions count every byte ever appended, across segments
+    private long appendedPosition;
+    private long requestedPosition;
+    private long durablePosition;
+    private volatile boolean closed;
+
+    public WriteAheadLog(Path directory, int firstSegment, int segmentBytes, FsyncPolicy policy,
+                         long intervalMillis, Runnable onSegmentRolled) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.policy = policy;
+        this.intervalMillis = intervalMillis;
+        this.onSegmentRolled = onSegmentRolled;
+        this.current = openSegment(firstSegment);
+
+        if (policy == FsyncPolicy.NEVER) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::runFlusher, "wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /** Largest payload {@link #append} accepts; a segment keeps room for its end marker. */
+    public int maxRecordBytes() {
+        return segmentBytes - 2 * HEADER_BYTES;
+    }
+
+    /** Appends one record and returns the logical position just past it. */
+    public synchronized long append(byte[] payload, int length) throws IOException {
+        if (closed) throw new IOException("Write-ahead log is closed");
+        int recordBytes = HEADER_BYTES + length;
+        if (length > maxRecordBytes()) throw new IOException("Record too large for WAL segment");
+        boolean rolled = false;
+        if (current.written + recordBytes > segmentBytes - HEADER_BYTES) {
+            rollSegment();
+            rolled = true;
+        }
+
+        crc.reset();
+        crc.update(payload, 0, length);
+        MappedByteBuffer buffer = current.buffer;
+        buffer.position(current.written);
+        buffer.putInt(length).putInt((int) crc.getValue()).put(payload, 0, length);
+        current.written += recordBytes;
+        appendedPosition += recordBytes;
+
+        if (rolled && onSegmentRolled != null) onSegmentRolled.run();
+        return appendedPosition;
+    }
+
+    /** Blocks until the given position is durable; a no-op unless the policy is ALWAYS. */
+    public void awaitDurable(long position) throws IOException {
+        if (policy != FsyncPolicy.ALWAYS) return;
+        WalSyncEvent event = new WalSyncEvent();
+        event.begin();
+        synchronized (flushMonitor) {
+            if (position > requestedPosition) {
+                requestedPosition = position;
+                flushMonitor.notifyAll();
+            }
+            while (durablePosition < position) {
+                if (closed) throw new IOException("Write-ahead log is closed");
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for WAL fsync");
+                }
+            }
+        }
+        if (event.shouldCommit()) {
+            event.position = position;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts a new segment unless the current one is empty and returns its number. Every
+     * record appended before the call lives in an older segment.
+     */
+    public synchronized int rollSegment() throws IOException {
+        if (current.written == 0) return current.number;
+        if (policy != FsyncPolicy.NEVER) current.buffer.force();
+        current.channel.close();
+        current = openSegment(current.number + 1);
+        return current.number;
+    }
+
+    public void deleteSegmentsBefore(int segmentNumber) throws IOException {
+        for (int number : listSegments(directory)) {
+            if (number < segmentNumber) Files.deleteIfExists(segmentPath(directory, number));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (policy != FsyncPolicy.NEVER) current.buffer.force();
+            current.channel.close();
+        }
+        synchronized (flushMonitor) {
+            durablePosition = appendedPosition;
+            flushMonitor.notifyAll();
+        }
+    }
+
+    private void runFlusher() {
+        while (!closed) {
+            try {
+                if (policy == FsyncPolicy.ALWAYS) {
+                    synchronized (flushMonitor) {
+                        while (requestedPosition <= durablePosition && !closed) {
+                            flushMonitor.wait();
+                        }
+                    }
+                } else {
+                    Thread.sleep(intervalMillis);
+                }
+                long flushed = flush();
+                synchronized (flushMonitor) {
+                    if (flushed > durablePosition) durablePosition = flushed;
+                    flushMonitor.notifyAll();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (!closed) System.err.println("WAL flush failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Forces the dirty range of the current segment; earlier segments were forced when rolled
+    private long flush() throws IOException {
+        Segment segment;
+        int from;
+        int to;
+        long position;
+        synchronized (this) {
+            if (closed) return appendedPosition;
+            segment = current;
+            from = segment.forced;
+            to = segment.written;
+            position = appendedPosition;
+        }
+        if (to > from) {
+            segment.buffer.force(from, to - from);
+            synchronized (this) {
+                segment.forced = Math.max(segment.forced, to);
+            }
+        }
+        return position;
+    }
+
+    private Segment openSegment(int number) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(directory, number),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(number, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+    }
+
+    /**
+     * Replays every intact record of the segments numbered {@code fromSegment} or higher,
+     * stopping at the first torn or corrupt record of each segment. Returns the highest
+     * segment number found, or {@code fromSegment - 1} when there is none.
+     */
+    public static int replay(Path directory, int fromSegment, RecordHandler handler) throws IOException {
+        int last = fromSegment - 1;
+        CRC32 crc = new CRC32();
+        for (int number : listSegments(directory)) {
+            if (number < fromSegment) continue;
+            last = number;
+            try (FileChannel channel = FileChannel.open(segmentPath(directory, number), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                byte[] payload = new byte[256];
+                while (buffer.remaining() >= HEADER_BYTES) {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) break;
+                    if (payload.length < length) payload = new byte[Math.max(length, payload.length * 2)];
+                    buffer.get(payload, 0, length);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) break;
+                    handler.handle(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                }
+            }
+        }
+        return last;
+    }
+
+    private static List<Integer> listSegments(Path directory) throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment written by this class
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static Path segmentPath(Path directory, int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+}
+
+/**
+ * File-backed persistence: every user and consultation is appended to a write-ahead log
+ * before it becomes visible in memory. The log is compacted into a snapshot whenever a
+ * segment fills up and on close, and startup loads the snapshot and replays what follows.
+ */
+class DurableDataPersistence extends InMemoryDataPersistence implements Closeable {
+    private static final byte RECORD_USER = 1;
+    private static final byte RECORD_CONSULTATION = 2;
+    private static final byte RECORD_CLEAR = 3;
+    // A count, then that many user and consultation pairs
+    private static final byte RECORD_BATCH = 4;
+    private static final int SNAPSHOT_MAGIC = 0x5A534E50; // "ZSNP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        byte[] array() { return buf; }
+
+        void truncate(int size) { count = size; }
+
+        void setInt(int offset, int value) {
+            buf[offset] = (byte) (value >>> 24);
+            buf[offset + 1] = (byte) (value >>> 16);
+            buf[offset + 2] = (byte) (value >>> 8);
+            buf[offset + 3] = (byte) value;
+        }
+    }
+
+    private final Path directory;
+    private final WriteAheadLog wal;
+    private final RecordBuffer recordBytes = new RecordBuffer();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+
+    public DurableDataPersistence(Path directory, ConsultationLog.Layout layout, WriteAheadLog.FsyncPolicy policy,
+                                  long fsyncIntervalMillis, int segmentBytes) throws IOException {
+        super(layout);
+        this.directory = Files.createDirectories(directory);
+        int firstSegment = loadSnapshot();
+        int lastSegment = WriteAheadLog.replay(directory, firstSegment, this::applyRecord);
+        // Never append to a segment that may end in a torn record
+        this.wal = new WriteAheadLog(directory, lastSegment + 1, segmentBytes, policy,
+            fsyncIntervalMillis, this::scheduleSnapshot);
+    }
+
+    @Override
+    public void saveUser(User user) {
+        long position;
+        synchronized (this) {
+            if (user.getId() == null) {
+                user.setId(generateUserId());
+            }
+            position = log(() -> {
+                record.writeByte(RECORD_USER);
+                writeUser(record, user);
+            });
+            super.saveUser(user);
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void addConsultation(ConsultationRecord consultation) {
+        // A record the store rejects must not reach the log, or replaying it would fail on every start
+        getConsultationLog().checkStorable(consultation);
+        long position;
+        synchronized (this) {
+            position = log(() -> {
+                record.writeByte(RECORD_CONSULTATION);
+                writeConsultation(record, consultation);
+            });
+            super.addConsultation(consultation);
+        }
+        awaitDurable(position);
+    }
+
+    // The batch is logged in as few records as fit a segment and waits for a single sync. Each
+    // record is applied only once it is logged, so after a failure exactly the logged part is
+    // applied, both now and when the log is replayed
+    @Override
+    public void saveAll(List<ConsultationRecord> records) {
+        for (ConsultationRecord consultation : records) {
+            getConsultationLog().checkStorable(consultation);
+        }
+        long position = 0;
+        synchronized (this) {
+            for (ConsultationRecord consultation : records) {
+                User user = consultation.getUser();
+                if (user.getId() == null) {
+                    user.setId(generateUserId());
+                }
+            }
+            int start = 0;
+            while (start < records.size()) {
+                int end = encodeBatch(records, start);
+                position = append();
+                for (int i = start; i < end; i++) {
+                    super.saveUser(records.get(i).getUser());
+                    super.addConsultation(records.get(i));
+                }
+                start = end;
+            }
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void clearAllData() {
+        long position;
+        synchronized (this) {
+            position = log(() -> record.writeByte(RECORD_CLEAR));
+            super.clearAllData();
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSnapshot();
+        wal.close();
+    }
+
+    private interface RecordWriter {
+        void write() throws IOException;
+    }
+
+    // Must hold the monitor so the log order matches the order changes are applied
+    private long log(RecordWriter writer) {
+        try {
+            recordBytes.reset();
+            writer.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return append();
+    }
+
+    private long append() {
+        try {
+            return wal.append(recordBytes.array(), recordBytes.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Encodes records from start on as one batch record, as many as fit the log, and returns
+    // the end; a single pair too large for the log is left for append to reject
+    private int encodeBatch(List<ConsultationRecord> records, int start) {
+        try {
+            recordBytes.reset();
+            record.writeByte(RECORD_BATCH);
+            record.writeInt(0);
+            int end = start;
+            while (end < records.size()) {
+                int mark = recordBytes.size();
+                writeUser(record, records.get(end).getUser());
+                writeConsultation(record, records.get(end));
+                if (recordBytes.size() > wal.maxRecordBytes() && end > start) {
+                    recordBytes.truncate(mark);
+                    break;
+                }
+                end++;
+            }
+            recordBytes.setInt(1, end - start);
+            return end;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void awaitDurable(long position) {
+        try {
+            wal.awaitDurable(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void applyRecord(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case RECORD_USER -> super.saveUser(readUser(in));
+            case RECORD_CONSULTATION -> applyConsultation(readConsultation(in));
+            case RECORD_CLEAR -> super.clearAllData();
+            case RECORD_BATCH -> {
+                for (int i = in.readInt(); i > 0; i--) {
+                    super.saveUser(readUser(in));
+                    applyConsultation(readConsultation(in));
+                }
+            }
+            default -> throw new IOException("Unknown WAL record type");
+        }
+    }
+
+    private void applyConsultation(ConsultationRecord consultation) {
+        if (consultation == null) return;
+        try {
+            super.addConsultation(consultation);
+        } catch (IllegalArgumentException e) {
+            // Earlier builds could log records that the columnar store then rejected
+            System.err.println("Skipping unstorable consultation in the log: " + e.getMessage());
+        }
+    }
+
+    private void scheduleSnapshot() {
+        if (snapshotPending.compareAndSet(false, true)) {
+            snapshotExecutor.execute(() -> {
+                try {
+                    writeSnapshot();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Snapshot failed: " + e.getMessage());
+                } finally {
+                    snapshotPending.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes every record logged before a fresh WAL segment to a snapshot, then drops the
+     * covered segments. Users saved after the cut may be included too; replaying them is
+     * harmless because saving a user is idempotent.
+     */
+    private void writeSnapshot() throws IOException {
+        int firstSegment;
+        ConsultationLog consultations;
+        int consultationCount;
+        synchronized (this) {
+            firstSegment = wal.rollSegment();
+            consultations = getConsultationLog();
+            consultationCount = consultations.size();
+        }
+
+        Map<String, User> users = new LinkedHashMap<>();
+        for (User user : getAllUsers()) users.put(user.getId(), user);
+        for (int i = 0; i < consultationCount; i++) {
+            ConsultationRecord consultation = consultations.get(i);
+            if (!users.containsKey(consultation.getUserId())) {
+                users.put(consultation.getUserId(), consultation.getUser());
+            }
+        }
+
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(firstSegment);
+            out.writeInt(users.size());
+            for (User user : users.values()) writeUser(out, user);
+            out.writeInt(consultationCount);
+            for (int i = 0; i < consultationCount; i++) writeConsultation(out, consultations.get(i));
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename must be durable before the segments it replaces go away
+        syncDirectory(directory);
+        wal.deleteSegmentsBefore(firstSegment);
+    }
+
+    // Forces directory entries to disk; Windows cannot open a directory for this, and NTFS
+    // journals renames anyway
+    private static void syncDirectory(Path directory) throws IOException {
+        if (System.getProperty("os.name", "").startsWith("Windows")) return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    // Returns the first WAL segment not covered by the snapshot
+    private int loadSnapshot() throws IOException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) return 0;
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot format: " + file);
+            }
+            int firstSegment = in.readInt();
+            for (int i = in.readInt(); i > 0; i--) super.saveUser(readUser(in));
+            for (int i = in.readInt(); i > 0; i--) {
+                ConsultationRecord consultation = readConsultation(in);
+                if (consultation != null) super.addConsultation(consultation);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) throw new IOException("Corrupt snapshot: " + file);
+            return firstSegment;
+        }
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        writeString(out, user.getId());
+        writeString(out, user.getSurname());
+        writeString(out, user.getFirstName());
+        writeString(out, user.getMiddleInitial());
+        writeString(out, user.getSuffix());
+        writeString(out, user.getGender());
+        out.writeInt(user.getMonth());
+        out.writeInt(user.getDay());
+        out.writeInt(user.getYear());
+        out.writeLong(user.getTimestamp() != null ? user.getTimestamp().getTime() : Long.MIN_VALUE);
+    }
+
+    private static User readUser(DataInputStream in) throws IOException {
+        User user = new User();
+        user.setId(readString(in));
+        restoreId(InMemoryDataPersistence.USER_ID_PREFIX, user.getId());
+        user.setSurname(readString(in));
+        user.setFirstName(readString(in));
+        user.setMiddleInitial(readString(in));
+        user.setSuffix(readString(in));
+        user.setGender(readString(in));
+        user.setMonth(in.readInt());
+        user.setDay(in.readInt());
+        user.setYear(in.readInt());
+        long timestamp = in.readLong();
+        user.setTimestamp(timestamp != Long.MIN_VALUE ? new Date(timestamp) : null);
+        return user;
+    }
+
+    private static void writeConsultation(DataOutputStream out, ConsultationRecord consultation) throws IOException {
+        writeString(out, consultation.getUserId());
+        out.writeLong(consultation.getTimestampMillis());
+        out.writeByte(consultation.getZodiacSign().ordinal());
+        writeString(out, consultation.getProphecyId());
+    }
+
+    // Returns null when the referenced user is unknown
+    private ConsultationRecord readConsultation(DataInputStream in) throws IOException {
+        User user = getUserById(readString(in));
+        Date timestamp = new Date(in.readLong());
+        ZodiacSign zodiacSign = ZodiacSign.fromOrdinal(in.readByte());
+        String prophecyId = readString(in);
+        restoreId(ConsultationRecord.PROPHECY_ID_PREFIX, prophecyId);
+        return user != null ? new ConsultationRecord(user, timestamp, zodiacSign, prophecyId) : null;
+    }
+
+    // Keeps ids generated after a restart above every id restored from disk
+    private static void restoreId(String prefix, String value) {
+        long id = IdGenerator.parse(prefix, value);
+        if (id != 0) IdGenerator.shared().advancePast(id);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
+
+class DailyProphecyTable {
+    static final int MONTHS = 12;
+    static final int DAYS_PER_MONTH = 31;
+
+    private final int dayKey;
+    private final int weekOfYear;
+    private final String[] mainProphecies;
+
+    DailyProphecyTable(int dayKey, int weekOfYear, String[] mainProphecies) {
+        this.dayKey = dayKey;
+        this.weekOfYear = weekOfYear;
+        this.mainProphecies = mainProphecies;
+    }
+
+    static int dayKey(Date date) {
+        return dayKey(java.time.LocalDate.ofInstant(date.toInstant(), java.time.ZoneId.systemDefault()));
+    }
+
+    static int dayKey(java.time.LocalDate date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    static int slot(int month, int day) {
+        if (month < 1 || month > MONTHS || day < 1 || day > DAYS_PER_MONTH) return -1;
+        return (month - 1) * DAYS_PER_MONTH + (day - 1);
+    }
+
+    int getDayKey() { return dayKey; }
+    int getWeekOfYear() { return weekOfYear; }
+
+    // Returns null when the birthday is outside the table
+    String getMainProphecy(int month, int day) {
+        int slot = slot(month, day);
+        return slot < 0 ? null : mainProphecies[slot];
+    }
+}
+
+class ZodiacProphecyGenerator implements ProphecyGenerator {
+    enum SeedMode {
+        // Reproduces the original String.hashCode seeds, so prophecies match earlier releases exactly
+        COMPATIBLE,
+        // Mixes the integer date fields directly; cheaper, but yields different prophecies
+        INTEGER;
+
+        static SeedMode fromProperty(String value) {
+            return "integer".equalsIgnoreCase(value) ? INTEGER : COMPATIBLE;
+        }
+    }
+
+    private static final String[] CATEGORIES = {"love", "career", "health", "money"};
+    private static final String[] CATEGORY_PREFIXES = {"💕 ", "🚀 ", "💪 ", "💰 "};
+    // Every word table indexed from the category seed has a length dividing this period
+    private static final int CATEGORY_TEXT_PERIOD = 1560;
+
+    // Word tables are kept upper-cased since every prophecy is rendered in upper case
+    private static final String[] ENERGY_WORDS = {"COSMIC", "CELESTIAL", "UNIVERSAL", "SPIRITUAL", "MYSTICAL", "DIVINE", "MAGICAL", "ETHEREAL", "ASTRAL", "QUANTUM"};
+    private static final String[] ACTION_WORDS = {"AWAKENS", "TRANSFORMS", "REVEALS", "CHANNELS", "AMPLIFIES", "MANIFESTS", "CREATES", "UNLOCKS", "IGNITES", "ACTIVATES"};
+    private static final String[] QUALITY_WORDS = {"PROFOUND", "INTENSE", "GENTLE", "POWERFUL", "HARMONIOUS", "DYNAMIC", "RADIANT", "VIBRANT", "LUMINOUS", "TRANSCENDENT"};
+    private static final String[] TIME_WORDS = {"TODAY", "NOW", "THIS MOMENT", "CURRENTLY", "AT PRESENT", "RIGHT NOW", "THIS DAY", "IMMEDIATELY"};
+    private static final String[] CONNECTION_WORDS = {"THROUGH", "VIA", "BY WAY OF", "USING", "WITH THE HELP OF", "GUIDED BY", "INFLUENCED BY", "POWERED BY"};
+
+    private static final String[] COLORS = {"RED", "BLUE", "GREEN", "YELLOW", "PINK", "PURPLE", "ORANGE", "BLACK", "WHITE", "BROWN"};
+    private static final String[] STONES = {"AMETHYST", "RUBY", "EMERALD", "SAPPHIRE", "DIAMOND", "OPAL", "GARNET", "TURQUOISE", "JADE", "PEARL", "TOPAZ", "QUARTZ"};
+    private static final String[] NUMBERS = {"3", "7", "9", "11", "13", "17", "21", "23", "27", "31", "33", "37", "41", "44", "47", "51", "55", "63", "69", "77", "81", "88", "93", "99"};
+    private static final String[] INITIALS = {"A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M", "N", "O", "P", "Q", "R", "S", "T", "U", "V", "W", "X", "Y", "Z"};
+
+    private static final String[][] CATEGORY_SUBJECTS = {
+        {"ROMANCE", "CONNECTION", "ATTRACTION", "PARTNERSHIP", "INTIMACY", "AFFECTION", "EMOTION", "PASSION"}, // love
+        {"OPPORTUNITY", "SUCCESS", "ADVANCEMENT", "RECOGNITION", "GROWTH", "LEADERSHIP", "INNOVATION", "ACHIEVEMENT"}, // career
+        {"VITALITY", "WELLNESS", "ENERGY", "BALANCE", "STRENGTH", "HEALING", "RENEWAL", "HARMONY"}, // health
+        {"PROSPERITY", "ABUNDANCE", "WEALTH", "INCOME", "INVESTMENT", "SAVINGS", "FINANCIAL GROWTH", "RESOURCES"} // money
+    };
+    private static final String[][] CATEGORY_ACTIONS = {
+        {"BLOSSOMS", "DEEPENS", "EMERGES", "STRENGTHENS", "FLOURISHES", "AWAKENS", "TRANSFORMS", "DEVELOPS"}, // love
+        {"ACCELERATES", "EXPANDS", "MANIFESTS", "DEVELOPS", "PROGRESSES", "ADVANCES", "SUCCEEDS", "THRIVES"}, // career
+        {"IMPROVES", "STRENGTHENS", "RESTORES", "ENERGIZES", "BALANCES", "HEALS", "REVITALIZES", "HARMONIZES"}, // health
+        {"INCREASES", "MULTIPLIES", "GROWS", "ACCUMULATES", "EXPANDS", "DEVELOPS", "PROSPERS", "FLOURISHES"} // money
+    };
+    private static final String[][] CATEGORY_OUTCOMES = {
+        {"MEANINGFUL BONDS", "LASTING JOY", "DEEP UNDERSTANDING", "EMOTIONAL GROWTH", "ROMANTIC FULFILLMENT", "HEART CONNECTIONS", "SOUL HARMONY", "TRUE COMPANIONSHIP"}, // love
+        {"PROFESSIONAL GROWTH", "CAREER BREAKTHROUGHS", "NEW OPPORTUNITIES", "SKILL DEVELOPMENT", "LEADERSHIP ROLES", "FINANCIAL REWARDS", "RECOGNITION", "SUCCESS"}, // career
+        {"PHYSICAL WELLNESS", "MENTAL CLARITY", "EMOTIONAL BALANCE", "RENEWED ENERGY", "INNER STRENGTH", "LIFE VITALITY", "HEALING PROGRESS", "OVERALL HEALTH"}, // health
+        {"FINANCIAL STABILITY", "WEALTH CREATION", "INVESTMENT SUCCESS", "INCOME GROWTH", "PROSPERITY GAINS", "SECURITY BUILDING", "ABUNDANCE FLOW", "MONEY SUCCESS"} // money
+    };
+
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final SeedMode seedMode;
+    private final AtomicReference<DailyProphecyTable> dailyTable = new AtomicReference<>();
+    private final String[][] categoryTexts = new String[CATEGORIES.length][CATEGORY_TEXT_PERIOD];
+
+    public ZodiacProphecyGenerator() {
+        this(SeedMode.COMPATIBLE);
+    }
+
+    public ZodiacProphecyGenerator(SeedMode seedMode) {
+        this.seedMode = seedMode;
+    }
+
+    // Nothing reads the per-sign templates yet, so they are built on first use rather than at startup
+    private static final class Templates {
+        static final Map<String, String[]> BY_SIGN = initializeProphecyTemplates();
+    }
+
+    @SuppressWarnings("unused")
+    private static Map<String, String[]> prophecyTemplates() {
+        return Templates.BY_SIGN;
+    }
+
+    @Override
+    public Prophecy generateProphecy(User user, Date date) {
+        return generateProphecy(user, date, new Date());
+    }
+
+    @Override
+    public Prophecy generateProphecy(User user, Date date, Date now) {
+        ProphecyGenerationEvent event = new ProphecyGenerationEvent();
+        event.begin();
+        ZodiacSign zodiacSign = calculateZodiacSign(user.getMonth(), user.getDay());
+        int seed = generateSeed(user, date, now);
+
+        // Generate completely dynamic main prophecy
+        String mainProphecy = generateDynamicMainProphecy(zodiacSign, user.getMonth(), user.getDay(), date);
+
+        DailyProphecyTable today = getDailyTable(now);
+        Prophecy prophecy = new Prophecy(
+            mainProphecy,
+            generateCategoryProphecy(0, zodiacSign, seed + 1, now, today),
+            generateCategoryProphecy(1, zodiacSign, seed + 2, now, today),
+            generateCategoryProphecy(2, zodiacSign, seed + 3, now, today),
+            generateCategoryProphecy(3, zodiacSign, seed + 4, now, today),
+            zodiacSign
+        );
+        if (event.shouldCommit()) {
+            event.userId = user.getId();
+            event.zodiacSign = zodiacSign.getDisplayName();
+            event.commit();
+        }
+        return prophecy;
+    }
+
+    /**
+     * Returns the prophecy table for the given day, building and installing it when the
+     * day rolls over. Returns null for past or future days, which are generated directly.
+     */
+    private DailyProphecyTable getDailyTable(Date date) {
+        int dayKey = DailyProphecyTable.dayKey(date);
+        DailyProphecyTable current = dailyTable.get();
+        if (current != null && current.getDayKey() == dayKey) return current;
+        if (dayKey != DailyProphecyTable.dayKey(new Date())) return null;
+        while (current == null || current.getDayKey() < dayKey) {
+            DailyProphecyTable built = buildDailyTable(dayKey, date);
+            if (dailyTable.compareAndSet(current, built)) return built;
+            current = dailyTable.get();
+        }
+        return current.getDayKey() == dayKey ? current : null;
+    }
+
+    private DailyProphecyTable buildDailyTable(int dayKey, Date date) {
+        String[] mainProphecies = new String[DailyProphecyTable.MONTHS * DailyProphecyTable.DAYS_PER_MONTH];
+        for (int month = 1; month <= DailyProphecyTable.MONTHS; month++) {
+            for (int day = 1; day <= DailyProphecyTable.DAYS_PER_MONTH; day++) {
+                ZodiacSign zodiacSign = calculateZodiacSign(month, day);
+                mainProphecies[DailyProphecyTable.slot(month, day)] =
+                    renderMainProphecy(zodiacSign.getUpperCaseName(), mainSeed(zodiacSign, month, day, dayKey));
+            }
+        }
+        return new DailyProphecyTable(dayKey, getWeekOfYear(date), mainProphecies);
+    }
+
+    private String generateDynamicMainProphecy(ZodiacSign zodiacSign, int month, int day, Date date) {
+        DailyProphecyTable table = getDailyTable(date);
+        if (table != null) {
+            String prophecy = table.getMainProphecy(month, day);
+            if (prophecy != null) return prophecy;
+        }
+        return renderMainProphecy(zodiacSign.getUpperCaseName(),
+            mainSeed(zodiacSign, month, day, DailyProphecyTable.dayKey(date)));
+    }
+
+    private int mainSeed(ZodiacSign zodiacSign, int month, int day, int dayKey) {
+        if (seedMode == SeedMode.INTEGER) {
+            return mixSeed(mixSeed(mixSeed(mixSeed(0, zodiacSign.getDisplayName().hashCode()), month), day), dayKey) & Integer.MAX_VALUE;
+        }
+        // Unique seed based on birthday (not year) and current date:
+        // (zodiacSign + month + day + "yyyy-MM-dd").hashCode()
+        int hash = appendDecimalHash(appendDecimalHash(zodiacSign.getDisplayName().hashCode(), month), day);
+        return Math.abs(appendDateHash(hash, dayKey));
+    }
+
+    private static String renderMainProphecy(String sign, int seed) {
+        StringBuilder text = renderBuffer();
+        switch (pick(seed, 0, 4)) {
+            case 0 -> text.append(ENERGY_WORDS[pick(seed, 0, 10)]).append(" ENERGY ")
+                .append(ACTION_WORDS[pick(seed, 1, 10)]).append(' ')
+                .append(QUALITY_WORDS[pick(seed, 2, 10)]).append(" OPPORTUNITIES ")
+                .append(TIME_WORDS[pick(seed, 0, 8)]).append(". YOUR INNER WISDOM GUIDES THIS TRANSFORMATION THROUGH ")
+                .append(sign).append("'S INFLUENCE.");
+            case 1 -> text.append(TIME_WORDS[pick(seed, 0, 8)]).append(", ")
+                .append(QUALITY_WORDS[pick(seed, 3, 10)]).append(' ')
+                .append(ENERGY_WORDS[pick(seed, 4, 10)]).append(" FORCES ")
+                .append(ACTION_WORDS[pick(seed, 5, 10)]).append(" NEW PATHS. ")
+                .append(sign).append(" ENERGY FLOWS ")
+                .append(CONNECTION_WORDS[pick(seed, 0, 8)]).append(" YOUR CHOICES.");
+            case 2 -> text.append("A ").append(QUALITY_WORDS[pick(seed, 6, 10)]).append(" SHIFT ")
+                .append(ACTION_WORDS[pick(seed, 7, 10)]).append(' ')
+                .append(CONNECTION_WORDS[pick(seed, 0, 8)]).append(' ')
+                .append(ENERGY_WORDS[pick(seed, 8, 10)]).append(" ALIGNMENT. YOUR ")
+                .append(sign).append(" NATURE ENHANCES THIS COSMIC DANCE.");
+            default -> text.append(ENERGY_WORDS[pick(seed, 9, 10)]).append(" CURRENTS ")
+                .append(ACTION_WORDS[pick(seed, 10, 10)]).append(' ')
+                .append(QUALITY_WORDS[pick(seed, 11, 10)]).append(" CHANGE IN YOUR LIFE. ")
+                .append(sign).append("'S WISDOM ILLUMINATES THE PATH FORWARD.");
+        }
+        return text.toString();
+    }
+
+    @Override
+    public ZodiacSign calculateZodiacSign(int month, int day) {
+        return ZodiacSign.fromBirthday(month, day);
+    }
+
+    private String generateCategoryProphecy(int categoryIndex, ZodiacSign zodiacSign, int seed, Date now, DailyProphecyTable today) {
+        int dayKey = today != null ? today.getDayKey() : DailyProphecyTable.dayKey(now);
+        int dynamicSeed;
+        if (seedMode == SeedMode.INTEGER) {
+            dynamicSeed = mixSeed(mixSeed(mixSeed(mixSeed(0, zodiacSign.getDisplayName().hashCode()), categoryIndex), dayKey), seed) & Integer.MAX_VALUE;
+        } else {
+            // (zodiacSign + category + "yyyy-MM-dd" + seed).hashCode()
+            int hash = appendDateHash(concatHash(zodiacSign.getDisplayName().hashCode(), CATEGORIES[categoryIndex]), dayKey);
+            dynamicSeed = Math.abs(appendDecimalHash(hash, seed));
+        }
+
+        int textIndex = pick(dynamicSeed, 0, CATEGORY_TEXT_PERIOD);
+        String text = categoryTexts[categoryIndex][textIndex];
+        if (text == null) {
+            // Racing threads render identical immutable strings, so an unsynchronized fill is safe
+            text = renderCategoryProphecy(categoryIndex, textIndex);
+            categoryTexts[categoryIndex][textIndex] = text;
+        }
+        return text;
+    }
+
+    private static String renderCategoryProphecy(int category, int seed) {
+        String color = COLORS[pick(seed, 0, COLORS.length)];
+        String stone = STONES[pick(seed, 1, STONES.length)];
+        String number = NUMBERS[pick(seed, 2, NUMBERS.length)];
+        String initial = INITIALS[pick(seed, 3, INITIALS.length)];
+        String[] subjects = CATEGORY_SUBJECTS[category];
+        String[] actions = CATEGORY_ACTIONS[category];
+        String[] outcomes = CATEGORY_OUTCOMES[category];
+
+        StringBuilder text = renderBuffer().append(CATEGORY_PREFIXES[category]);
+        switch (pick(seed, 0, 4)) {
+            case 0 -> text.append("YOUR ").append(subjects[pick(seed, 0, 8)]).append(' ')
+                .append(actions[pick(seed, 1, 8)]).append(" THROUGH ").append(color)
+                .append(" ENERGY. THE ").append(stone).append(" STONE AMPLIFIES ")
+                .append(outcomes[pick(seed, 2, 8)]).append(" TODAY.");
+            case 1 -> text.append(color).append(" SURROUNDINGS ATTRACT ").append(subjects[pick(seed, 3, 8)])
+                .append(" THAT ").append(actions[pick(seed, 4, 8)])
+                .append(". LOOK FOR CONNECTIONS WITH LETTER ").append(initial)
+                .append(" FOR ").append(outcomes[pick(seed, 5, 8)]).append('.');
+            case 2 -> text.append("THE NUMBER ").append(number).append(" GUIDES ")
+                .append(subjects[pick(seed, 6, 8)]).append(" TOWARD ").append(outcomes[pick(seed, 7, 8)])
+                .append(". YOUR ").append(stone).append(" BRINGS CLARITY TO ")
+                .append(actions[pick(seed, 8, 8)]).append(" OPPORTUNITIES.");
+            default -> text.append(subjects[pick(seed, 9, 8)]).append(' ').append(actions[pick(seed, 10, 8)])
+                .append(" WHEN YOU EMBRACE ").append(color).append(" CHOICES. ")
+                .append(stone).append(" ENERGY SUPPORTS ").append(outcomes[pick(seed, 11, 8)])
+                .append(" IN UNEXPECTED WAYS.");
+        }
+        return text.toString();
+    }
+
+    private static StringBuilder renderBuffer() {
+        StringBuilder buffer = RENDER_BUFFER.get();
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    // Equivalent to (seed + offset) % length for every seed that did not overflow before
+    private static int pick(int seed, int offset, int length) {
+        return (int) Math.floorMod((long) seed + offset, (long) length);
+    }
+
+    private static int mixSeed(int hash, int value) {
+        int h = (hash ^ value) * 0x9E3779B1;
+        return h ^ (h >>> 15);
+    }
+
+    private static int concatHash(int hash, String suffix) {
+        for (int i = 0; i < suffix.length(); i++) {
+            hash = 31 * hash + suffix.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int appendDecimalHash(int hash, int value) {
+        if (value < 0) {
+            hash = 31 * hash + '-';
+        } else {
+            value = -value;
+        }
+        // Work on the negative magnitude so Integer.MIN_VALUE needs no special case
+        int divisor = 1;
+        while (value / divisor <= -10) {
+            divisor *= 10;
+        }
+        while (divisor != 0) {
+            hash = 31 * hash + ('0' - value / divisor);
+            value %= divisor;
+            divisor /= 10;
+        }
+        return hash;
+    }
+
+    // Appends the hash of the "yyyy-MM-dd" form of a yyyyMMdd day key
+    private static int appendDateHash(int hash, int dayKey) {
+        int year = dayKey / 10000;
+        int month = dayKey / 100 % 100;
+        int day = dayKey % 100;
+        for (int divisor = 1000; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + ('0' + year / divisor % 10);
+        }
+        hash = 31 * hash + '-';
+        hash = 31 * hash + ('0' + month / 10);
+        hash = 31 * hash + ('0' + month % 10);
+        hash = 31 * hash + '-';
+        hash = 31 * hash + ('0' + day / 10);
+        return 31 * hash + ('0' + day % 10);
+    }
+
+    @SuppressWarnings("unused")
+    private String[] getSubjects(String category) {
+        return switch (category.toLowerCase()) {
+            case "love" -> new String[]{"Romance", "Passion", "Connection", "Attraction", "Intimacy", "Commitment", "Understanding", "Chemistry"};
+            case "career" -> new String[]{"Opportunity", "Recognition", "Growth", "Success", "Innovation", "Leadership", "Collaboration", "Achievement"};
+            case "health" -> new String[]{"Vitality", "Energy", "Wellness", "Balance", "Healing", "Strength", "Renewal", "Harmony"};
+            case "money" -> new String[]{"Prosperity", "Investment", "Income", "Savings", "Opportunity", "Growth", "Security", "Abundance"};
+            default -> new String[]{"Fortune", "Energy", "Growth", "Change", "Opportunity", "Success", "Balance", "Progress"};
+        };
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private String getDaySpecificContext(String category, int dayCode) {
+        String[][] contexts = {
+            // Love contexts
+            {"Someone special notices your unique qualities.", "Romantic timing aligns perfectly with your desires.", "Heart-to-heart conversations create lasting bonds.", "Love arrives through unexpected circumstances.", "Emotional walls dissolve naturally."},
+            // Career contexts  
+            {"Your expertise solves complex workplace challenges.", "Professional networks expand in meaningful ways.", "Creative approaches outperform traditional methods.", "Leadership opportunities recognize your potential.", "Collaborative efforts yield impressive results."},
+            // Health contexts
+            {"Mind-body connection strengthens through awareness.", "Natural healing accelerates your recovery process.", "Energy levels increase through positive lifestyle choices.", "Physical activity brings mental clarity.", "Nutritional awareness improves overall wellness."},
+            // Money contexts
+            {"Smart financial decisions create long-term stability.", "Investment opportunities align with your values.", "Resourcefulness turns challenges into profitable solutions.", "Multiple income streams develop naturally.", "Financial partnerships prove mutually beneficial."}
+        };
+
+        int categoryIndex = switch (category.toLowerCase()) {
+            case "love" -> 0;
+            case "career" -> 1; 
+            case "health" -> 2;
+            case "money" -> 3;
+            default -> 0;
+        };
+
+        return contexts[categoryIndex][dayCode % contexts[categoryIndex].length];
+    }
+
+    @SuppressWarnings("unused")
+    private String[] getDynamicModifiers(String category, int seed) {
+        Map<String, String[]> modifiers = new HashMap<>();
+
+        modifiers.put("love", new String[]{
+            "A surprise connection may emerge through unexpected circumstances.",
+            "Pay attention to subtle signs and synchronicities in relationships.",
+            "Someone from your past may reappear with important messages.",
+            "New romantic energy enters through creative or spiritual activities.",
+            "Trust your heart's wisdom over logical relationship analysis.",
+            "Social gatherings bring meaningful romantic opportunities.",
+            "Digital communication holds special significance today.",
+            "Family connections influence your romantic choices positively."
+        });
+
+        modifiers.put("career", new String[]{
+            "Hidden opportunities reveal themselves through casual conversations.",
+            "Your unique perspective solves complex workplace challenges.",
+            "Collaboration with distant colleagues brings breakthrough moments.",
+            "Industry changes create new pathways for advancement.",
+            "Your expertise attracts recognition from unexpected sources.",
+            "Creative solutions outperform traditional approaches today.",
+            "Professional networks expand through mutual interests.",
+            "Leadership skills emerge naturally in team situations."
+        });
+
+        modifiers.put("health", new String[]{
+            "Mind-body connection strengthens through mindful practices.",
+            "Environmental changes support your wellness journey.",
+            "Energy levels fluctuate - honor your body's natural rhythms.",
+            "Healing happens through joyful movement and laughter.",
+            "Nutrition awareness leads to beneficial dietary adjustments.",
+            "Sleep patterns reveal important health information.",
+            "Social connections boost mental and emotional wellbeing.",
+            "Alternative healing methods show promising results."
+        });
+
+        modifiers.put("money", new String[]{
+            "Unexpected income sources appear through personal skills.",
+            "Wise spending decisions create long-term financial stability.",
+            "Investment opportunities arise through professional connections.",
+            "Resourcefulness turns limitations into creative solutions.",
+            "Value-based purchases align with your authentic priorities.",
+            "Financial partnerships require careful consideration and trust.",
+            "Technology platforms open new revenue possibilities.",
+            "Generosity creates positive financial energy circulation."
+        });
+
+        return modifiers.getOrDefault(category, new String[]{
+            "Today brings unique opportunities for growth and discovery.",
+            "Your intuition guides you toward beneficial choices.",
+            "Patience and persistence lead to meaningful progress."
+        });
+    }
+
+
+    private int generateSeed(User user, Date date, Date now) {
+        // Create unique daily seed that changes each day but stays consistent within the day
+        int dayKey = DailyProphecyTable.dayKey(date);
+
+        // Enhanced personalization factors
+        int dayOfWeek = date.getDay();
+        int dayOfMonth = date.getDate();
+        DailyProphecyTable table = getDailyTable(date);
+        int weekOfYear = table != null ? table.getWeekOfYear() : getWeekOfYear(date);
+
+        // Add time-of-day factor for some intra-day variation
+        int timeFactor = now.getHours() / ProphecyResponseCache.WINDOW_HOURS; // Changes 6 times per day
+
+        if (seedMode == SeedMode.INTEGER) {
+            int hash = mixSeed(mixSeed(0, user.getSurname().hashCode()), user.getFirstName().hashCode());
+            hash = mixSeed(mixSeed(mixSeed(hash, user.getMonth()), user.getDay()), user.getYear());
+            hash = mixSeed(mixSeed(mixSeed(hash, dayKey), dayOfWeek), weekOfYear);
+            return mixSeed(hash, timeFactor) & Integer.MAX_VALUE;
+        }
+
+        // Combine multiple factors for richer variation; this is the hash of
+        // surname + firstName + month + day + year + "yyyy-MM-dd" + dayOfWeek + weekOfYear + timeFactor + dayOfMonth
+        int hash = concatHash(String.valueOf(user.getSurname()).hashCode(), String.valueOf(user.getFirstName()));
+        hash = appendDecimalHash(appendDecimalHash(appendDecimalHash(hash, user.getMonth()), user.getDay()), user.getYear());
+        hash = appendDecimalHash(appendDecimalHash(appendDateHash(hash, dayKey), dayOfWeek), weekOfYear);
+        return Math.abs(appendDecimalHash(appendDecimalHash(hash, timeFactor), dayOfMonth));
+    }
+
+    private int getWeekOfYear(Date date) {
+        java.util.Calendar cal = java.util.Calendar.getInstance();
+        cal.setTime(date);
+        return cal.get(java.util.Calendar.WEEK_OF_YEAR);
+    }
+
+    private static Map<String, String[]> initializeProphecyTemplates() {
+        Map<String, String[]> templates = new HashMap<>();
+
+        // Simple, clear prophecies that change daily
+        templates.put("Aries", new String[]{
+            "Today brings new energy and exciting opportunities. Take action on your ideas.",
+            "Your leadership skills shine bright today. Others will follow your lead.",
+            "A bold decision will open doors. Trust your instincts and move forward.",
+            "Today is perfect for starting something new. Your confidence attracts success.",
+            "Challenges today will make you stronger. Face them with courage."
+        });
+
+        templates.put("Taurus", new String[]{
+            "Slow and steady wins today. Focus on building something lasting.",
+            "Money matters look promising. A financial opportunity may appear.",
+            "Your practical nature solves problems others can't. Use this gift.",
+            "Today rewards patience and hard work. Keep pushing forward.",
+            "Beauty and comfort surround you today. Enjoy life's simple pleasures."
+        });
+
+        templates.put("Gemini", new String[]{
+            "Communication is your superpower today. Share your ideas freely.",
+            "Learning something new brings unexpected benefits. Stay curious.",
+            "Multiple opportunities appear. Choose the one that excites you most.",
+            "Your social skills open important doors. Network and connect.",
+            "Quick thinking saves the day. Trust your mental agility."
+        });
+
+        templates.put("Cancer", new String[]{
+            "Family and home bring joy today. Nurture your closest relationships.",
+            "Your intuition is especially strong. Listen to your inner voice.",
+            "Emotional connections deepen. Someone important enters your life.",
+            "Helping others brings unexpected rewards. Your kindness matters.",
+            "Past experiences guide today's decisions. Trust your wisdom."
+        });
+
+        templates.put("Leo", new String[]{
+            "Your natural charisma attracts positive attention. Shine brightly.",
+            "Creative projects flourish under today's energy. Express yourself boldly.",
+            "Leadership opportunities present themselves. Step into the spotlight.",
+            "Your generous spirit brings good karma. Give freely to receive abundantly.",
+            "Recognition for past efforts finally arrives. Enjoy your moment."
+        });
+
+        templates.put("Virgo", new String[]{
+            "Attention to detail pays off handsomely today. Perfection is possible.",
+            "Organizing your life brings clarity and peace. Clean up loose ends.",
+            "Your helpful nature solves others' problems. This builds strong bonds.",
+            "Health and wellness deserve focus today. Take care of your body.",
+            "Practical solutions emerge for complex problems. Trust your logic."
+        });
+
+        templates.put("Libra", new String[]{
+            "Balance in all things brings harmony today. Seek the middle ground.",
+            "Partnerships flourish under today's energy. Collaboration is key.",
+            "Beauty and art inspire new possibilities. Let creativity flow.",
+            "Fairness and justice guide your decisions. Do what's right.",
+            "Social connections bring unexpected opportunities. Be diplomatic."
+        });
+
+        templates.put("Scorpio", new String[]{
+            "Deep insights reveal hidden truths today. Trust your instincts.",
+            "Transformation begins with small changes. Start your evolution now.",
+            "Your intensity attracts powerful allies. Use this magnetic energy.",
+            "Secrets may be revealed that change everything. Stay prepared.",
+            "Emotional depth strengthens important relationships. Be vulnerable."
+        });
+
+        templates.put("Sagittarius", new String[]{
+            "Adventure calls and new horizons beckon. Expand your world today.",
+            "Learning and teaching bring mutual benefits. Share your knowledge.",
+            "Optimism opens doors that seemed permanently closed. Stay positive.",
+            "Travel or foreign connections bring good fortune. Think globally.",
+            "Your philosophical nature attracts like-minded souls. Connect deeply."
+        });
+
+        templates.put("Capricorn", new String[]{
+            "Hard work finally pays off in tangible ways. Your efforts matter.",
+            "Leadership positions become available. You're ready to climb higher.",
+            "Long-term planning shows positive results. Stay focused on goals.",
+            "Responsibility brings respect and recognition. Embrace your duties.",
+            "Traditional methods work better than trendy shortcuts. Be classic."
+        });
+
+        templates.put("Aquarius", new String[]{
+            "Innovation and originality set you apart today. Be uniquely you.",
+            "Group activities bring unexpected benefits. Join like-minded people.",
+            "Technology or science offers interesting opportunities. Stay current.",
+            "Your humanitarian spirit attracts support for good causes. Lead change.",
+            "Friendship proves more valuable than money today. Cherish connections."
+        });
+
+        templates.put("Pisces", new String[]{
+            "Your imagination creates beautiful possibilities today. Dream big.",
+            "Spiritual or artistic pursuits bring deep satisfaction. Feed your soul.",
+            "Compassion for others opens hearts and minds. Show empathy.",
+            "Water-related activities bring peace and clarity. Stay fluid.",
+            "Your psychic abilities are heightened today. Trust your feelings."
+        });
+
+        return templates;
+    }
+}
+
+/**
+ * The "yyyy-MM-dd HH:mm:ss" timestamps of the JSON and CSV output, in the default time
+ * zone. Digits go straight into the caller's array, so no formatter or string is made.
+ */
+final class Timestamps {
+    static final int LENGTH = 19;
+
+    private Timestamps() {
+    }
+
+    /** Writes {@link #LENGTH} characters into the array at the offset. */
+    static void format(Date timestamp, char[] into, int offset) {
+        java.time.LocalDateTime time = java.time.LocalDateTime.ofInstant(timestamp.toInstant(), java.time.ZoneId.systemDefault());
+        putPadded(into, offset, time.getYear(), 4);
+        into[offset + 4] = '-';
+        putPadded(into, offset + 5, time.getMonthValue(), 2);
+        into[offset + 7] = '-';
+        putPadded(into, offset + 8, time.getDayOfMonth(), 2);
+        into[offset + 10] = ' ';
+        putPadded(into, offset + 11, time.getHour(), 2);
+        into[offset + 13] = ':';
+        putPadded(into, offset + 14, time.getMinute(), 2);
+        into[offset + 16] = ':';
+        putPadded(into, offset + 17, time.getSecond(), 2);
+    }
+
+    private static void putPadded(char[] into, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            into[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
+
+/**
+ * Streaming JSON writer that encodes UTF-8 straight into a reusable byte buffer.
+ * {@link #acquire()} hands out the calling thread's pooled instance, which must be
+ * written out before the same thread acquires it again.
+ */
+class JsonWriter {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final ThreadLocal<JsonWriter> POOL = ThreadLocal.withInitial(JsonWriter::new);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private final char[] timestamp = new char[Timestamps.LENGTH];
+    private int size;
+    private int depth;
+    // Bit n is set once the container at depth n holds a value and needs a separator
+    private long containerHasValue;
+    private boolean afterName;
+
+    public static JsonWriter acquire() {
+        JsonWriter writer = POOL.get();
+        writer.reset();
+        return writer;
+    }
+
+    public void reset() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) buffer = new byte[INITIAL_CAPACITY];
+        size = 0;
+        depth = 0;
+        containerHasValue = 0;
+        afterName = false;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        writeByte('{');
+        return push();
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        writeByte('[');
+        return push();
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        beforeValue();
+        writeQuoted(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeQuoted(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    // Writes the timestamp as "yyyy-MM-dd HH:mm:ss" in the default time zone
+    public JsonWriter value(Date timestamp) {
+        if (timestamp == null) return value((String) null);
+        beforeValue();
+        Timestamps.format(timestamp, this.timestamp, 0);
+        ensureCapacity(Timestamps.LENGTH + 2);
+        buffer[size++] = '"';
+        for (char c : this.timestamp) {
+            buffer[size++] = (byte) c;
+        }
+        buffer[size++] = '"';
+        return this;
+    }
+
+    /** Starts a string value assembled from several parts; close it with {@link #endString()}. */
+    public JsonWriter beginString() {
+        beforeValue();
+        writeByte('"');
+        return this;
+    }
+
+    public JsonWriter stringPart(String part) {
+        if (part != null) writeEscaped(part);
+        return this;
+    }
+
+    public JsonWriter stringPart(long part) {
+        writeLong(part);
+        return this;
+    }
+
+    public JsonWriter endString() {
+        writeByte('"');
+        return this;
+    }
+
+    // Ends a top-level value in newline-delimited output
+    public JsonWriter newline() {
+        writeByte('\n');
+        return this;
+    }
+
+    public int size() { return size; }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /** Writes out and discards the buffered bytes while keeping the nesting state. */
+    public void flushTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private JsonWriter push() {
+        if (++depth >= MAX_DEPTH) throw new IllegalStateException("JSON nested too deeply");
+        containerHasValue &= ~(1L << depth);
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            long bit = 1L << depth;
+            if ((containerHasValue & bit) != 0) writeByte(',');
+            containerHasValue |= bit;
+        }
+    }
+
+    private void writeQuoted(String value) {
+        writeByte('"');
+        writeEscaped(value);
+        writeByte('"');
+    }
+
+    private void writeEscaped(String value) {
+        int length = value.length();
+        ensureCapacity(length * 6);
+        byte[] out = buffer;
+        int pos = size;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out[pos++] = (byte) c;
+                } else {
+                    out[pos++] = '\\';
+                    switch (c) {
+                        case '"' -> out[pos++] = '"';
+                        case '\\' -> out[pos++] = '\\';
+                        case '\n' -> out[pos++] = 'n';
+                        case '\r' -> out[pos++] = 'r';
+                        case '\t' -> out[pos++] = 't';
+                        case '\b' -> out[pos++] = 'b';
+                        case '\f' -> out[pos++] = 'f';
+                        default -> pos = writeUnicodeEscape(out, pos, c);
+                    }
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates cannot be encoded as UTF-8, so keep them as escapes
+                out[pos++] = '\\';
+                pos = writeUnicodeEscape(out, pos, c);
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        size = pos;
+    }
+
+    private static int writeUnicodeEscape(byte[] out, int pos, char c) {
+        out[pos++] = 'u';
+        out[pos++] = HEX_DIGITS[(c >> 12) & 0xF];
+        out[pos++] = HEX_DIGITS[(c >> 8) & 0xF];
+        out[pos++] = HEX_DIGITS[(c >> 4) & 0xF];
+        out[pos++] = HEX_DIGITS[c & 0xF];
+        return pos;
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+        } else {
+            value = -value;
+        }
+        // Work on the negative magnitude so Long.MIN_VALUE needs no special case
+        long divisor = 1;
+        while (value / divisor <= -10) {
+            divisor *= 10;
+        }
+        while (divisor != 0) {
+            buffer[size++] = (byte) ('0' - value / divisor);
+            value %= divisor;
+            divisor /= 10;
+        }
+    }
+
+    private void writeAscii(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[size++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
+
+/**
+ * Writes RFC 4180 CSV rows to a character stream, quoting fields that contain
+ * separators, quotes or line breaks.
+ */
+class CsvWriter {
+    private final Writer out;
+    private final char[] scratch = new char[20];
+    private boolean rowStarted;
+
+    public CsvWriter(Writer out) {
+        this.out = out;
+    }
+
+    public CsvWriter field(String value) throws IOException {
+        separate();
+        if (value == null || value.isEmpty()) return this;
+        if (!needsQuoting(value)) {
+            out.write(value);
+            return this;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') out.write('"');
+            out.write(c);
+        }
+        out.write('"');
+        return this;
+    }
+
+    public CsvWriter field(long value) throws IOException {
+        separate();
+        int pos = scratch.length;
+        boolean negative = value < 0;
+        if (!negative) value = -value;
+        do {
+            scratch[--pos] = (char) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (negative) scratch[--pos] = '-';
+        out.write(scratch, pos, scratch.length - pos);
+        return this;
+    }
+
+    // Writes the timestamp as yyyy-MM-dd HH:mm:ss in the default time zone
+    public CsvWriter field(Date timestamp) throws IOException {
+        separate();
+        if (timestamp == null) return this;
+        Timestamps.format(timestamp, scratch, 0);
+        out.write(scratch, 0, Timestamps.LENGTH);
+        return this;
+    }
+
+    public void endRow() throws IOException {
+        out.write('\n');
+        rowStarted = false;
+    }
+
+    private void separate() throws IOException {
+        if (rowStarted) out.write(',');
+        rowStarted = true;
+    }
+
+    private static boolean needsQuoting(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
+}
+
+class UserValidator implements Validator {
+    private static final Pattern NAME_PATTERN = Pattern.compile("^[A-Z\\s]*$");
+
+    @Override
+    public boolean validate(Object data) {
+        if (!(data instanceof User)) return false;
+        User user = (User) data;
+
+        return user.getSurname() != null && !user.getSurname().trim().isEmpty() &&
+               user.getFirstName() != null && !user.getFirstName().trim().isEmpty() &&
+               user.getGender() != null && !user.getGender().trim().isEmpty() &&
+               user.getMonth() >= 1 && user.getMonth() <= 12 &&
+               user.getDay() >= 1 && user.getDay() <= 31 &&
+               user.getYear() >= 1920 && user.getYear() <= 2024 &&
+               NAME_PATTERN.matcher(user.getSurname()).matches() &&
+               NAME_PATTERN.matcher(user.getFirstName()).matches();
+    }
+
+    @Override
+    public List<String> getValidationErrors(Object data) {
+        List<String> errors = new ArrayList<>();
+        if (!(data instanceof User)) {
+            errors.add("Invalid data type");
+            return errors;
+        }
+
+        User user = (User) data;
+        if (user.getSurname() == null || user.getSurname().trim().isEmpty()) {
+            errors.add("Surname is required");
+        }
+        if (user.getFirstName() == null || user.getFirstName().trim().isEmpty()) {
+            errors.add("First name is required");
+        }
+        if (user.getMonth() < 1 || user.getMonth() > 12) {
+            errors.add("Invalid month");
+        }
+        if (user.getDay() < 1 || user.getDay() > 31) {
+            errors.add("Invalid day");
+        }
+
+        return errors;
+    }
+}
+
+class UserCreationTransaction extends Transaction {
+    private final User user;
+    private final DataPersistence dataPersistence;
+    private final ConsultationRecord record;
+    private final InMemoryDataPersistence memoryPersistence;
+
+    public UserCreationTransaction(User user, DataPersistence dataPersistence, 
+                                  ConsultationRecord record, InMemoryDataPersistence memoryPersistence) {
+        this.user = user;
+        this.dataPersistence = dataPersistence;
+        this.record = record;
+        this.memoryPersistence = memoryPersistence;
+    }
+
+    @Override
+    public void execute() throws Exception {
+        dataPersistence.saveUser(user);
+        memoryPersistence.addConsultation(record);
+    }
+
+    @Override
+    public void rollback() throws Exception {
+        if (user.getId() != null && dataPersistence.userExists(user.getId())) {
+            System.err.println("Would rollback user creation for: " + user.getId());
+        }
+    }
+}
+
+class RequestParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public RequestParseException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() { return statusCode; }
+}
+
+/**
+ * Single-pass parser for the user JSON object. Decodes UTF-8 straight from the request
+ * stream; only field values are materialized as strings.
+ */
+class UserJsonParser {
+    static final int MAX_BODY_BYTES = 16 * 1024;
+
+    private static final String[] FIELDS = {"surname", "firstName", "middleInitial", "suffix", "gender", "month", "day", "year"};
+    private static final int UNKNOWN_FIELD = -1;
+    private static final int MAX_NESTING = 32;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private final StringBuilder text = new StringBuilder(64);
+    private int position;
+    private int limit;
+    private int totalBytes;
+    private int peeked = -2;
+
+    UserJsonParser(InputStream in) {
+        this.in = in;
+        this.buffer = new byte[1024];
+    }
+
+    // Parses bytes already in memory in place; the caller bounds their length
+    UserJsonParser(byte[] data, int offset, int length) {
+        this.in = null;
+        this.buffer = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public static User parse(InputStream in) throws IOException {
+        return new UserJsonParser(in).parseUser();
+    }
+
+    // Bytes taken from the stream so far; in-place parses report 0
+    int getBytesRead() { return totalBytes; }
+
+    public static User parse(byte[] data, int offset, int length) throws IOException {
+        return new UserJsonParser(data, offset, length).parseUser();
+    }
+
+    User parseUser() throws IOException {
+        User user = new User();
+        expect('{');
+        if (peekSignificant() == '}') {
+            next();
+        } else {
+            do {
+                expect('"');
+                readString();
+                int field = fieldIndex();
+                expect(':');
+                readField(user, field);
+            } while (nextSignificantSeparator('}'));
+        }
+        if (peekSignificant() != -1) throw malformed("Unexpected content after JSON object");
+        return user;
+    }
+
+    private void readField(User user, int field) throws IOException {
+        switch (field) {
+            case 0 -> user.setSurname(readStringValue());
+            case 1 -> user.setFirstName(readStringValue());
+            case 2 -> user.setMiddleInitial(readStringValue());
+            case 3 -> user.setSuffix(readStringValue());
+            case 4 -> user.setGender(readStringValue());
+            case 5 -> user.setMonth(readIntValue(user.getMonth()));
+            case 6 -> user.setDay(readIntValue(user.getDay()));
+            case 7 -> user.setYear(readIntValue(user.getYear()));
+            default -> skipValue(0);
+        }
+    }
+
+    private int fieldIndex() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].contentEquals(text)) return i;
+        }
+        return UNKNOWN_FIELD;
+    }
+
+    private String readStringValue() throws IOException {
+        int c = peekSignificant();
+        if (c == '"') {
+            next();
+            readString();
+            return text.toString();
+        }
+        if (c == 'n') {
+            readLiteral("null");
+            return null;
+        }
+        readNumberText();
+        return text.toString();
+    }
+
+    // Accepts numbers and numeric strings; null and empty strings leave the current value
+    private int readIntValue(int current) throws IOException {
+        int c = peekSignificant();
+        if (c == 'n') {
+            readLiteral("null");
+            return current;
+        }
+        if (c == '"') {
+            next();
+            readString();
+        } else {
+            readNumberText();
+        }
+        return parseInt(current);
+    }
+
+    private int parseInt(int current) throws IOException {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (start == end) return current;
+
+        boolean negative = text.charAt(start) == '-';
+        if (negative || text.charAt(start) == '+') start++;
+        if (start == end) throw malformed("Invalid number");
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            if (ch < '0' || ch > '9') throw malformed("Invalid number");
+            value = value * 10 + (ch - '0');
+            if (value > Integer.MAX_VALUE) throw malformed("Number out of range");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private void readNumberText() throws IOException {
+        text.setLength(0);
+        int c = peek();
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+            text.append((char) next());
+            c = peek();
+        }
+        if (text.length() == 0) throw malformed("Unexpected value");
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) throw malformed("Unexpected value");
+        }
+    }
+
+    private void skipValue(int depth) throws IOException {
+        if (depth > MAX_NESTING) throw malformed("JSON nested too deeply");
+        int c = peekSignificant();
+        switch (c) {
+            case '"' -> {
+                next();
+                readString();
+            }
+            case '{' -> {
+                next();
+                if (peekSignificant() == '}') {
+                    next();
+                    return;
+                }
+                do {
+                    expect('"');
+                    readString();
+                    expect(':');
+                    skipValue(depth + 1);
+                } while (nextSignificantSeparator('}'));
+            }
+            case '[' -> {
+                next();
+                if (peekSignificant() == ']') {
+                    next();
+                    return;
+                }
+                do {
+                    skipValue(depth + 1);
+                } while (nextSignificantSeparator(']'));
+            }
+            case 't' -> readLiteral("true");
+            case 'f' -> readLiteral("false");
+            case 'n' -> readLiteral("null");
+            default -> readNumberText();
+        }
+    }
+
+    // Consumes ',' (returns true) or the closing character (returns false)
+    private boolean nextSignificantSeparator(char close) throws IOException {
+        int c = peekSignificant();
+        next();
+        if (c == ',') return true;
+        if (c == close) return false;
+        throw malformed("Unexpected character");
+    }
+
+    // Reads the rest of a string whose opening quote was consumed into the text buffer
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int b = next();
+            if (b == -1) throw malformed("Unterminated string");
+            if (b == '"') return;
+            if (b == '\\') {
+                readEscape();
+            } else if (b < 0x20) {
+                throw malformed("Control character in string");
+            } else if (b < 0x80) {
+                text.append((char) b);
+            } else {
+                text.appendCodePoint(readUtf8(b));
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = next();
+        switch (c) {
+            case '"', '\\', '/' -> text.append((char) c);
+            case 'b' -> text.append('\b');
+            case 'f' -> text.append('\f');
+            case 'n' -> text.append('\n');
+            case 'r' -> text.append('\r');
+            case 't' -> text.append('\t');
+            case 'u' -> {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) throw malformed("Invalid unicode escape");
+                    value = (value << 4) | digit;
+                }
+                text.append((char) value);
+            }
+            default -> throw malformed("Invalid escape sequence");
+        }
+    }
+
+    private int readUtf8(int lead) throws IOException {
+        int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            throw malformed("Invalid UTF-8");
+        }
+        for (int i = 0; i < extra; i++) {
+            int b = next();
+            if ((b & 0xC0) != 0x80) throw malformed("Invalid UTF-8");
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        int minimum = extra == 1 ? 0x80 : extra == 2 ? 0x800 : 0x10000;
+        if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            throw malformed("Invalid UTF-8");
+        }
+        return codePoint;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peekSignificant() != expected) throw malformed("Unexpected character");
+        next();
+    }
+
+    private int peekSignificant() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            next();
+            c = peek();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) peeked = read();
+        return peeked;
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        peeked = -2;
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            if (in == null) return -1;
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+            totalBytes += limit;
+            if (totalBytes > MAX_BODY_BYTES) {
+                throw new RequestParseException(413, "Request body too large");
+            }
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private static RequestParseException malformed(String message) {
+        return new RequestParseException(400, message);
+    }
+}
+
+/**
+ * Holds output until it can be sent: in memory up to a limit, then in a temporary file that
+ * is deleted on close. Import results go through one so the whole upload is read before
+ * any result is written; a client that sends everything before reading (most HTTP
+ * libraries do) would otherwise block on its send while the server blocks on its write.
+ */
+class ResultSpool extends OutputStream {
+    static final int MEMORY_LIMIT_BYTES = 4 * 1024 * 1024;
+
+    private final int memoryLimit;
+    private byte[] buffer = new byte[8192];
+    private int count;
+    private Path file;
+    private OutputStream fileOut;
+
+    public ResultSpool(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null && count + len <= memoryLimit) {
+            if (count + len > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(memoryLimit, Math.max(buffer.length * 2, count + len)));
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+            return;
+        }
+        if (fileOut == null) {
+            file = Files.createTempFile("zodiac-import-", ".ndjson");
+            fileOut = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+            fileOut.write(buffer, 0, count);
+            buffer = null;
+        }
+        fileOut.write(b, off, len);
+    }
+
+    /** Copies everything written so far to the given stream. */
+    public void writeTo(OutputStream out) throws IOException {
+        if (fileOut == null) {
+            out.write(buffer, 0, count);
+            return;
+        }
+        fileOut.flush();
+        Files.copy(file, out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut == null) return;
+        try {
+            fileOut.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
+
+/**
+ * Imports newline-delimited user objects. The request thread cuts the input into batches
+ * while workers parse, validate, save and render them, at most a few batches per worker at
+ * a time, so memory stays bounded however long the input is. Results come back in input
+ * order, one line per non-blank input line, tagged with its line number.
+ */
+class UserImporter {
+    static final String CONTENT_TYPE = "application/x-ndjson; charset=utf-8";
+    static final int BATCH_LINES = 1024;
+    private static final int BATCH_BYTES = 1024 * 1024;
+    private static final int MAX_LINE_BYTES = UserJsonParser.MAX_BODY_BYTES;
+
+    private static final class Batch {
+        byte[] data = new byte[64 * 1024];
+        int size;
+        final long[] lineNumbers = new long[BATCH_LINES];
+        final int[] starts = new int[BATCH_LINES];
+        // -1 marks a line that was too long and was dropped
+        final int[] ends = new int[BATCH_LINES];
+        int count;
+
+        boolean isFull() {
+            return count == BATCH_LINES || size >= BATCH_BYTES;
+        }
+
+        void append(byte[] bytes, int offset, int length) {
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+            }
+            System.arraycopy(bytes, offset, data, size, length);
+            size += length;
+        }
+
+        void add(long lineNumber, int start, int end) {
+            lineNumbers[count] = lineNumber;
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+
+    private final InMemoryDataPersistence persistence;
+    private final ProphecyGenerator prophecyGenerator;
+    private final Validator validator;
+    private final ExecutorService workers;
+    private final int maxBatchesInFlight;
+
+    public UserImporter(InMemoryDataPersistence persistence, ProphecyGenerator prophecyGenerator,
+                        Validator validator, int threads) {
+        this.persistence = persistence;
+        this.prophecyGenerator = prophecyGenerator;
+        this.validator = validator;
+        this.maxBatchesInFlight = threads * 2;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "import-worker-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    /** Reads the input to its end, writing one result line per user; returns the number of lines answered. */
+    public long importUsers(InputStream in, OutputStream out, boolean withProphecy) throws IOException {
+        LineReader reader = new LineReader(in);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        long answered = 0;
+        try {
+            while (true) {
+                Batch batch = reader.nextBatch();
+                if (batch == null) break;
+                answered += batch.count;
+                if (pending.size() >= maxBatchesInFlight) out.write(await(pending.poll()));
+                pending.add(workers.submit(() -> process(batch, withProphecy)));
+            }
+            while (!pending.isEmpty()) {
+                out.write(await(pending.poll()));
+            }
+            return answered;
+        } finally {
+            // Batches already running still finish; their users are saved but go unreported
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private byte[] process(Batch batch, boolean withProphecy) {
+        RequestParseEvent parseEvent = new RequestParseEvent();
+        parseEvent.begin();
+        String[] errors = new String[batch.count];
+        ConsultationRecord[] records = new ConsultationRecord[batch.count];
+        List<ConsultationRecord> accepted = new ArrayList<>(batch.count);
+        for (int i = 0; i < batch.count; i++) {
+            if (batch.ends[i] < 0) {
+                errors[i] = "Line longer than " + MAX_LINE_BYTES + " bytes";
+                continue;
+            }
+            try {
+                User user = UserJsonParser.parse(batch.data, batch.starts[i], batch.ends[i] - batch.starts[i]);
+                if (validator.validate(user)) {
+                    records[i] = new ConsultationRecord(user, prophecyGenerator);
+                    accepted.add(records[i]);
+                } else {
+                    List<String> validationErrors = validator.getValidationErrors(user);
+                    errors[i] = validationErrors.isEmpty() ? "Invalid user" : String.join(", ", validationErrors);
+                }
+            } catch (RequestParseException e) {
+                errors[i] = e.getMessage();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (parseEvent.shouldCommit()) {
+            parseEvent.endpoint = "/api/users/import";
+            parseEvent.records = batch.count;
+            parseEvent.bytes = batch.size;
+            parseEvent.commit();
+        }
+        persistence.saveAll(accepted);
+
+        JsonWriter json = JsonWriter.acquire();
+        for (int i = 0; i < batch.count; i++) {
+            json.beginObject().name("line").value(batch.lineNumbers[i]);
+            ConsultationRecord record = records[i];
+            if (record == null) {
+                json.name("success").value(false).name("error").value(errors[i]);
+            } else {
+                json.name("success").value(true).name("userId").value(record.getUserId());
+                if (withProphecy) {
+                    Date now = record.getTimestamp();
+                    prophecyGenerator.generateProphecy(record.getUser(), now, now).writeFields(json);
+                } else {
+                    json.name("zodiacSign").value(record.getZodiacSign().getDisplayName());
+                }
+            }
+            json.endObject().newline();
+        }
+        return json.toByteArray();
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Import batch failed", e.getCause());
+        }
+    }
+
+    // Splits the input on '\n' into batches; blank lines are counted but not answered
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+        private long lineNumber;
+        private boolean finished;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        Batch nextBatch() throws IOException {
+            Batch batch = new Batch();
+            while (!batch.isFull() && readLine(batch)) {
+                // keep filling
+            }
+            return batch.count > 0 ? batch : null;
+        }
+
+        private boolean readLine(Batch batch) throws IOException {
+            if (finished) return false;
+            int start = batch.size;
+            long length = 0;
+            boolean ended = false;
+            while (!ended) {
+                if (position == limit && !fill()) {
+                    if (length == 0) return false;
+                    break;
+                }
+                int end = position;
+                while (end < limit && buffer[end] != '\n') end++;
+                int count = end - position;
+                if (length + count <= MAX_LINE_BYTES) batch.append(buffer, position, count);
+                length += count;
+                ended = end < limit;
+                position = ended ? end + 1 : end;
+            }
+            lineNumber++;
+            if (length > MAX_LINE_BYTES) {
+                batch.size = start;
+                batch.add(lineNumber, start, -1);
+            } else if (isBlank(batch.data, start, batch.size)) {
+                batch.size = start;
+            } else {
+                batch.add(lineNumber, start, batch.size);
+            }
+            return true;
+        }
+
+        private boolean fill() throws IOException {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read <= 0) {
+                finished = true;
+                return false;
+            }
+            position = 0;
+            limit = read;
+            return true;
+        }
+
+        private static boolean isBlank(byte[] data, int start, int end) {
+            for (int i = start; i < end; i++) {
+                byte b = data[i];
+                if (b != ' ' && b != '\t' && b != '\r') return false;
+            }
+            return true;
+        }
+    }
+}
+
+class UserHandler extends BaseHandler {
+    private final DataPersistence dataPersistence;
+    private final ProphecyGenerator prophecyGenerator;
+    private final Validator userValidator;
+    private final InMemoryDataPersistence memoryPersistence;
+    private final UserImporter importer;
+
+    public UserHandler(DataPersistence dataPersistence, ProphecyGenerator prophecyGenerator,
+                      Validator userValidator, InMemoryDataPersistence memoryPersistence, UserImporter importer) {
+        this.dataPersistence = dataPersistence;
+        this.prophecyGenerator = prophecyGenerator;
+        this.userValidator = userValidator;
+        this.memoryPersistence = memoryPersistence;
+        this.importer = importer;
+    }
+
+    @Override
+    protected String endpointOf(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/import")) return "/api/users/import";
+        if (path.endsWith("/consult")) return "/api/users/consult";
+        return "/api/users";
+    }
+
+    @Override
+    protected void handleRequest(HttpExchange exchange) throws IOException {
+        setCORSHeaders(exchange);
+        if (isOptionsRequest(exchange)) {
+            handleOptionsRequest(exchange);
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod()) && path.endsWith("/import")) {
+            handleImport(exchange);
+        } else if ("POST".equals(exchange.getRequestMethod())) {
+            // POST /api/users/consult also answers with the prophecy, saving a second request
+            handleUserSubmission(exchange, path.endsWith("/consult"));
+        } else {
+            sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+        }
+    }
+
+    // Results are held until the upload is read unless the client asks to stream them, which
+    // only works for clients that read while they are still sending
+    private void handleImport(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        boolean withProphecy = !"false".equals(extractParameter(query, "prophecy"));
+        if ("true".equals(extractParameter(query, "stream"))) {
+            sendChunkedHeaders(exchange, 200, UserImporter.CONTENT_TYPE);
+            try (InputStream in = exchange.getRequestBody(); OutputStream os = exchange.getResponseBody()) {
+                importer.importUsers(in, os, withProphecy);
+            }
+            return;
+        }
+
+        try (InputStream in = exchange.getRequestBody(); ResultSpool results = new ResultSpool(ResultSpool.MEMORY_LIMIT_BYTES)) {
+            importer.importUsers(in, results, withProphecy);
+            sendChunkedHeaders(exchange, 200, UserImporter.CONTENT_TYPE);
+            try (OutputStream os = exchange.getResponseBody()) {
+                results.writeTo(os);
+            }
+        }
+    }
+
+    private void handleUserSubmission(HttpExchange exchange, boolean withProphecy) throws IOException {
+        try {
+            RequestParseEvent parseEvent = new RequestParseEvent();
+            parseEvent.begin();
+            UserJsonParser parser = new UserJsonParser(exchange.getRequestBody());
+            User user = parser.parseUser();
+            if (parseEvent.shouldCommit()) {
+                parseEvent.endpoint = endpointOf(exchange);
+                parseEvent.records = 1;
+                parseEvent.bytes = parser.getBytesRead();
+                parseEvent.commit();
+            }
+
+            if (userValidator.validate(user)) {
+                ConsultationRecord record = new ConsultationRecord(user, prophecyGenerator);
+                UserCreationTransaction transaction = new UserCreationTransaction(
+                    user, dataPersistence, record, memoryPersistence);
+
+                if (transaction.commit()) {
+                    JsonWriter response = JsonWriter.acquire();
+                    response.beginObject()
+                        .name("success").value(true)
+                        .name("userId").value(user.getId());
+                    if (withProphecy) {
+                        Date now = record.getTimestamp();
+                        prophecyGenerator.generateProphecy(user, now, now).writeFields(response);
+                    } else {
+                        response.name("zodiacSign").value(record.getZodiacSign().getDisplayName());
+                    }
+                    response.endObject();
+                    sendJsonResponse(exchange, 200, response);
+                } else {
+                    sendJsonResponse(exchange, 500, "{\"error\":\"Transaction failed\"}");
+                }
+            } else {
+                List<String> errors = userValidator.getValidationErrors(user);
+                String errorMessage = String.join(", ", errors);
+                sendJsonError(exchange, 400, errorMessage);
+            }
+        } catch (RequestParseException e) {
+            sendJsonError(exchange, e.getStatusCode(), e.getMessage());
+        } catch (IOException e) {
+            sendJsonResponse(exchange, 500, "{\"error\":\"Internal server error\"}");
+        }
+    }
+}
+
+/**
+ * Rendered consultation responses for the current prophecy window. A prophecy depends only
+ * on the user, the day and the 4-hour window of generateSeed, so a response stays valid
+ * until the window ends and its ETag is known without generating anything. Entries are
+ * dropped wholesale when the window turns; within a window an arbitrary entry makes room
+ * once the cache is full. Misses are single-flight: concurrent requests for the same user
+ * and window wait for one lookup and render instead of each doing their own.
+ */
+class ProphecyResponseCache {
+    static final int WINDOW_HOURS = 4;
+
+    static final class Window {
+        final int dayKey;
+        final int index;
+        final long startMillis;
+        final long endMillis;
+        final String etag;
+        final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+        final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+        Window(int dayKey, int index, long startMillis, long endMillis) {
+            this.dayKey = dayKey;
+            this.index = index;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.etag = "\"" + dayKey + "." + index + "\"";
+        }
+
+        boolean contains(long nowMillis) {
+            return nowMillis >= startMillis && nowMillis < endMillis;
+        }
+
+        // Rounded down, so clients never hold a response past the boundary
+        long secondsRemaining(long nowMillis) {
+            return Math.max(0, (endMillis - nowMillis) / 1000);
+        }
+    }
+
+    private final int maxEntries;
+    private final AtomicReference<Window> current = new AtomicReference<>();
+
+    public ProphecyResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /** The window containing the given time; windows follow local wall-clock hours like the seed does. */
+    public Window window(Date now) {
+        long nowMillis = now.getTime();
+        Window window = current.get();
+        if (window != null && window.contains(nowMillis)) return window;
+
+        java.time.ZoneId zone = java.time.ZoneId.systemDefault();
+        java.time.LocalDateTime local = java.time.LocalDateTime.ofInstant(now.toInstant(), zone);
+        int index = local.getHour() / WINDOW_HOURS;
+        java.time.LocalDateTime start = local.toLocalDate().atStartOfDay().plusHours((long) index * WINDOW_HOURS);
+        long startMillis = start.atZone(zone).toInstant().toEpochMilli();
+        long endMillis = start.plusHours(WINDOW_HOURS).atZone(zone).toInstant().toEpochMilli();
+        Window fresh = new Window(DailyProphecyTable.dayKey(local.toLocalDate()), index,
+            Math.min(startMillis, nowMillis), Math.max(endMillis, nowMillis));
+        // Only move forward, so a request carrying an older time cannot evict the live window
+        while (window == null || window.endMillis <= nowMillis) {
+            if (current.compareAndSet(window, fresh)) return fresh;
+            window = current.get();
+            // Lost to a request installing the same window: share it, so responses and flights are shared too
+            if (window != null && window.contains(nowMillis)) return window;
+        }
+        return fresh;
+    }
+
+    /** Drops every cached response, for when stored users go away. */
+    public void clear() {
+        Window window = current.get();
+        if (window != null) current.compareAndSet(window, null);
+    }
+
+    public byte[] get(Window window, String userId) {
+        return window.responses.get(userId);
+    }
+
+    /**
+     * The cached response, or the loader's result for a miss. Only one caller per user and
+     * window runs the loader; the others wait for it and get the same bytes (or the same
+     * null, meaning no such user, which is shared but not cached).
+     */
+    public byte[] getOrLoad(Window window, String userId, Function<String, byte[]> loader) {
+        byte[] body = window.responses.get(userId);
+        if (body != null) return body;
+
+        CompletableFuture<byte[]> flight = new CompletableFuture<>();
+        CompletableFuture<byte[]> leader = window.inFlight.putIfAbsent(userId, flight);
+        if (leader != null) return await(leader);
+        try {
+            // A flight may have landed between the miss above and claiming the slot
+            body = window.responses.get(userId);
+            if (body == null) {
+                body = loader.apply(userId);
+                if (body != null) put(window, userId, body);
+            }
+            flight.complete(body);
+            return body;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            // After put, so a later miss either finds the response or joins this flight
+            window.inFlight.remove(userId, flight);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    public void put(Window window, String userId, byte[] response) {
+        if (maxEntries <= 0 || window != current.get()) return;
+        Map<String, byte[]> responses = window.responses;
+        if (responses.size() >= maxEntries) {
+            Iterator<String> victim = responses.keySet().iterator();
+            if (victim.hasNext()) {
+                victim.next();
+                victim.remove();
+            }
+        }
+        responses.put(userId, response);
+    }
+}
+
+class ConsultationHandler extends BaseHandler {
+    private final DataPersistence dataPersistence;
+    private final ProphecyGenerator prophecyGenerator;
+    private final ProphecyResponseCache responseCache;
+
+    public ConsultationHandler(DataPersistence dataPersistence, ProphecyGenerator prophecyGenerator,
+                               ProphecyResponseCache responseCache) {
+        this.dataPersistence = dataPersistence;
+        this.prophecyGenerator = prophecyGenerator;
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    protected void handleRequest(HttpExchange exchange) throws IOException {
+        setCORSHeaders(exchange);
+        if (isOptionsRequest(exchange)) {
+            handleOptionsRequest(exchange);
+            return;
+        }
+
+        if ("GET".equals(exchange.getRequestMethod())) {
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null && query.contains("userId=")) {
+                sendProphecy(exchange, extractParameter(query, "userId"));
+            } else {
+                sendJsonResponse(exchange, 400, "{\"error\":\"Missing userId parameter\"}");
+            }
+        }
+    }
+
+    // The ETag names the prophecy window; the URL already names the user
+    private void sendProphecy(HttpExchange exchange, String userId) throws IOException {
+        Date now = new Date();
+        ProphecyResponseCache.Window window = responseCache.window(now);
+        if (etagMatches(exchange, window.etag)) {
+            if (userId == null || dataPersistence.getUserById(userId) == null) {
+                sendJsonResponse(exchange, 404, "{\"error\":\"User not found\"}");
+                return;
+            }
+            setCachingHeaders(exchange, window, now);
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        // Any time inside the window yields the same prophecy, so the leader's "now" serves everyone
+        byte[] body = userId == null ? null : responseCache.getOrLoad(window, userId, id -> render(id, now));
+        if (body == null) {
+            sendJsonResponse(exchange, 404, "{\"error\":\"User not found\"}");
+            return;
+        }
+        setCachingHeaders(exchange, window, now);
+        sendJsonResponse(exchange, 200, body);
+    }
+
+    private void setCachingHeaders(HttpExchange exchange, ProphecyResponseCache.Window window, Date now) {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", window.etag);
+        headers.set("Cache-Control", "private, max-age=" + window.secondsRemaining(now.getTime()));
+    }
+
+    private byte[] render(String userId, Date now) {
+        User user = dataPersistence.getUserById(userId);
+        if (user == null) return null;
+        Prophecy prophecy = prophecyGenerator.generateProphecy(user, now, now);
+        JsonWriter response = JsonWriter.acquire();
+        prophecy.writeJSON(response);
+        return response.toByteArray();
+    }
+}
+
+class AdminHandler extends BaseHandler {
+    private static final String ENDPOINT = "/api/admin";
+    private static final String[] ROUTES = {"/stats", "/executor", "/metrics", "/users", "/query", "/clear", "/export", "/recording"};
+    private static final String[] ROUTE_ENDPOINTS = Arrays.stream(ROUTES).map(route -> ENDPOINT + route).toArray(String[]::new);
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_FLUSH_BYTES = 16 * 1024;
+    private static final String CSV_HEADER =
+        "Surname,First Name,Middle Initial,Suffix,Gender,Month,Day,Year,Zodiac Sign,Consultation Time\n";
+
+    private final InMemoryDataPersistence dataPersistence;
+    private final RequestExecutor executor;
+    private final FlightRecorderControl recorder;
+    private final ProphecyResponseCache responseCache;
+
+    public AdminHandler(InMemoryDataPersistence dataPersistence, RequestExecutor executor, FlightRecorderControl recorder,
+                        ProphecyResponseCache responseCache) {
+        this.dataPersistence = dataPersistence;
+        this.executor = executor;
+        this.recorder = recorder;
+        this.responseCache = responseCache;
+    }
+
+    // Same precedence as the dispatch in handleRequest
+    @Override
+    protected String endpointOf(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        for (int i = 0; i < ROUTES.length; i++) {
+            if (path.contains(ROUTES[i])) return ROUTE_ENDPOINTS[i];
+        }
+        return ENDPOINT;
+    }
+
+    @Override
+    protected void handleRequest(HttpExchange exchange) throws IOException {
+        setCORSHeaders(exchange);
+        if (isOptionsRequest(exchange)) {
+            handleOptionsRequest(exchange);
+            return;
+        }
+
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+
+        if ("GET".equals(method) && path.contains("/stats")) {
+            handleGetStats(exchange);
+        } else if ("GET".equals(method) && path.contains("/executor")) {
+            handleGetExecutor(exchange);
+        } else if ("GET".equals(method) && path.contains("/metrics")) {
+            handleGetMetrics(exchange);
+        } else if ("GET".equals(method) && path.contains("/users")) {
+            handleGetAllUsers(exchange);
+        } else if ("GET".equals(method) && path.contains("/query")) {
+            handleQuery(exchange);
+        } else if ("DELETE".equals(method) && path.contains("/clear")) {
+            handleClearData(exchange);
+        } else if ("GET".equals(method) && path.contains("/export")) {
+            handleExportData(exchange);
+        } else if (path.contains("/recording")) {
+            handleRecording(exchange, method);
+        } else {
+            sendJsonResponse(exchange, 404, "{\"error\":\"Endpoint not found\"}");
+        }
+    }
+
+    private void handleGetStats(HttpExchange exchange) throws IOException {
+        JsonWriter response = JsonWriter.acquire();
+        dataPersistence.getStats().writeJSON(response);
+        sendJsonResponse(exchange, 200, response);
+    }
+
+    private void handleGetExecutor(HttpExchange exchange) throws IOException {
+        JsonWriter response = JsonWriter.acquire();
+        executor.writeJSON(response);
+        sendJsonResponse(exchange, 200, response);
+    }
+
+    /**
+     * POST starts a flight recording (settings=default|profile, maxAgeSeconds), GET downloads
+     * what it holds so far, DELETE discards it.
+     */
+    private void handleRecording(HttpExchange exchange, String method) throws IOException {
+        switch (method) {
+            case "POST" -> startRecording(exchange);
+            case "GET" -> dumpRecording(exchange);
+            case "DELETE" -> {
+                if (recorder.close()) {
+                    sendRecordingState(exchange, 200);
+                } else {
+                    sendJsonError(exchange, 404, "No recording is open");
+                }
+            }
+            default -> sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+        }
+    }
+
+    private void startRecording(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String settings = extractParameter(query, "settings");
+        String maxAge = extractParameter(query, "maxAgeSeconds");
+        boolean started;
+        try {
+            started = recorder.start(settings != null ? settings : "default",
+                Duration.ofSeconds(maxAge != null ? Long.parseLong(maxAge) : 300));
+        } catch (IllegalArgumentException e) {
+            sendJsonError(exchange, 400, e.getMessage());
+            return;
+        }
+        if (started) {
+            sendRecordingState(exchange, 200);
+        } else {
+            sendJsonError(exchange, 409, "A recording is already open");
+        }
+    }
+
+    private void dumpRecording(HttpExchange exchange) throws IOException {
+        Path file = recorder.dump();
+        if (file == null) {
+            sendJsonError(exchange, 404, "No recording is open");
+            return;
+        }
+        try {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "application/octet-stream");
+            headers.set("Content-Disposition", "attachment; filename=zodiac.jfr");
+            exchange.sendResponseHeaders(200, Files.size(file));
+            try (OutputStream os = exchange.getResponseBody()) {
+                Files.copy(file, os);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void sendRecordingState(HttpExchange exchange, int statusCode) throws IOException {
+        JsonWriter response = JsonWriter.acquire();
+        recorder.writeJSON(response);
+        sendJsonResponse(exchange, statusCode, response);
+    }
+
+    private void handleGetMetrics(HttpExchange exchange) throws IOException {
+        StringBuilder text = new StringBuilder(16 * 1024);
+        RequestMetrics.shared().writePrometheus(text);
+        executor.writePrometheus(text);
+        StartupTimes.shared().writePrometheus(text);
+        RequestMetrics.writeSample(text, "zodiac_store_users", "gauge", "Users stored", dataPersistence.getUserCount());
+        RequestMetrics.writeSample(text, "zodiac_store_consultations", "gauge", "Consultations stored",
+            dataPersistence.getConsultationLog().size());
+
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", RequestMetrics.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * Streams consultations as a chunked JSON array. With a limit (or a cursor) the array
+     * is wrapped in an object carrying the opaque nextCursor for the following page.
+     */
+    private void handleGetAllUsers(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String limitParam = extractParameter(query, "limit");
+        String cursorParam = extractParameter(query, "cursor");
+        boolean paged = limitParam != null || cursorParam != null;
+        ConsultationLog log = dataPersistence.getConsultationLog();
+
+        ConsultationFilter filter;
+        int limit;
+        int start;
+        try {
+            filter = parseFilter(query);
+            limit = limitParam != null ? parseLimit(limitParam) : (paged ? MAX_PAGE_SIZE : Integer.MAX_VALUE);
+            start = cursorParam != null ? decodeCursor(log, cursorParam) : 0;
+        } catch (IllegalArgumentException e) {
+            sendJsonError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        // Only the records present when the request started are returned
+        int end = log.size();
+        sendChunkedHeaders(exchange, 200, JSON_CONTENT_TYPE);
+        try (OutputStream os = exchange.getResponseBody()) {
+            JsonWriter json = JsonWriter.acquire();
+            if (paged) json.beginObject().name("consultations");
+            json.beginArray();
+
+            int index = start;
+            int written = 0;
+            while (written < limit && (index = seek(log, filter, index, end)) < end) {
+                ConsultationRecord record = log.get(index++);
+                if (!filter.matches(record)) continue;
+                record.writeJSON(json);
+                written++;
+                if (json.size() >= STREAM_FLUSH_BYTES) json.flushTo(os);
+            }
+
+            json.endArray();
+            if (paged) {
+                json.name("nextCursor").value(index < end ? encodeCursor(log, index) : null).endObject();
+            }
+            json.flushTo(os);
+        }
+    }
+
+    /**
+     * Streams matching users (the default) or consultations (type=consultations) as
+     * chunked JSON. Users are read from the name, birth date or sign index; consultations
+     * use the time bounds of log segments. The chosen access path is reported as "index".
+     */
+    private void handleQuery(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String type = extractParameter(query, "type");
+        boolean consultations = "consultations".equals(type);
+        if (type != null && !consultations && !"users".equals(type)) {
+            sendJsonError(exchange, 400, "type must be users or consultations");
+            return;
+        }
+
+        UserQuery userQuery = null;
+        ConsultationFilter filter = null;
+        int limit;
+        try {
+            if (consultations) {
+                filter = parseFilter(query);
+            } else {
+                userQuery = UserQuery.fromParameters(extractParameter(query, "name"), extractParameter(query, "sign"),
+                    extractParameter(query, "born"), extractParameter(query, "gender"));
+            }
+            String limitParam = extractParameter(query, "limit");
+            limit = limitParam != null ? parseLimit(limitParam) : Integer.MAX_VALUE;
+        } catch (IllegalArgumentException e) {
+            sendJsonError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        sendChunkedHeaders(exchange, 200, JSON_CONTENT_TYPE);
+        try (OutputStream os = exchange.getResponseBody()) {
+            JsonWriter json = JsonWriter.acquire();
+            int written = 0;
+            if (consultations) {
+                ConsultationLog log = dataPersistence.getConsultationLog();
+                int end = log.size();
+                json.beginObject().name("index").value(filter.hasTimeRange() ? "time" : "scan")
+                    .name("results").beginArray();
+                int index = 0;
+                while (written < limit && (index = seek(log, filter, index, end)) < end) {
+                    ConsultationRecord record = log.get(index++);
+                    if (!filter.matches(record)) continue;
+                    record.writeJSON(json);
+                    written++;
+                    if (json.size() >= STREAM_FLUSH_BYTES) json.flushTo(os);
+                }
+            } else {
+                UserIndex.Access access = dataPersistence.planUserQuery(userQuery);
+                json.beginObject().name("index").value(access.getLabel()).name("results").beginArray();
+                Iterator<User> users = dataPersistence.findUsers(userQuery, access);
+                while (written < limit && users.hasNext()) {
+                    users.next().writeJSON(json);
+                    written++;
+                    if (json.size() >= STREAM_FLUSH_BYTES) json.flushTo(os);
+                }
+            }
+            json.endArray().endObject();
+            json.flushTo(os);
+        }
+    }
+
+    private int seek(ConsultationLog log, ConsultationFilter filter, int index, int end) {
+        if (!filter.hasTimeRange()) return index;
+        return log.seekTimeRange(index, end, filter.getFromMillis(), filter.getToMillis());
+    }
+
+    private ConsultationFilter parseFilter(String query) {
+        return ConsultationFilter.fromParameters(
+            extractParameter(query, "gender"), extractParameter(query, "sign"),
+            extractParameter(query, "from"), extractParameter(query, "to"));
+    }
+
+    private int parseLimit(String value) {
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            return limit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit");
+        }
+    }
+
+    // Cursors pack the log generation with the next index, so they expire when data is cleared
+    private String encodeCursor(ConsultationLog log, int index) {
+        long packed = ((long) log.getGeneration() << 32) | index;
+        return Long.toString(packed, Character.MAX_RADIX);
+    }
+
+    private int decodeCursor(ConsultationLog log, String cursor) {
+        try {
+            long packed = Long.parseLong(cursor, Character.MAX_RADIX);
+            int index = (int) packed;
+            if ((int) (packed >>> 32) == log.getGeneration() && index >= 0 && index <= log.size()) {
+                return index;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the error below
+        }
+        throw new IllegalArgumentException("Invalid or expired cursor");
+    }
+
+    private void handleClearData(HttpExchange exchange) throws IOException {
+        dataPersistence.clearAllData();
+        // Cleared after the store, so a response rendered in between cannot outlive its user
+        responseCache.clear();
+        sendJsonResponse(exchange, 200, "{\"success\":true,\"message\":\"All data cleared\"}");
+    }
+
+    private void handleExportData(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        if (!"csv".equals(extractParameter(query, "format"))) {
+            handleGetAllUsers(exchange);
+            return;
+        }
+
+        ConsultationFilter filter;
+        try {
+            filter = parseFilter(query);
+        } catch (IllegalArgumentException e) {
+            sendJsonError(exchange, 400, e.getMessage());
+            return;
+        }
 
-    @Override
-    public void rollback() throws Exception {
-        if (user.getId() != null && dataPersistence.userExists(user.getId())) {
-            System.err.println("Would rollback user creation for: " + user.getId());
+        boolean gzip = acceptsGzip(exchange);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Disposition", "attachment; filename=zodiac_data.csv");
+        headers.set("Vary", "Accept-Encoding");
+        if (gzip) headers.set("Content-Encoding", "gzip");
+        sendChunkedHeaders(exchange, 200, "text/csv; charset=utf-8");
+
+        ConsultationLog log = dataPersistence.getConsultationLog();
+        int end = log.size();
+        OutputStream body = exchange.getResponseBody();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                gzip ? new GZIPOutputStream(body, STREAM_FLUSH_BYTES) : body, StandardCharsets.UTF_8), STREAM_FLUSH_BYTES)) {
+            CsvWriter csv = new CsvWriter(out);
+            out.write(CSV_HEADER);
+            int index = 0;
+            while ((index = seek(log, filter, index, end)) < end) {
+                ConsultationRecord record = log.get(index++);
+                if (!filter.matches(record)) continue;
+                record.writeCSV(csv);
+                csv.endRow();
+            }
         }
     }
 }
 
-class UserHandler extends BaseHandler {
-    private final DataPersistence dataPersistence;
-    private final ProphecyGenerator prophecyGenerator;
-    private final Validator userValidator;
-    private final InMemoryDataPersistence memoryPersistence;
+/**
+ * Static files held in memory with a strong ETag, a Last-Modified date and, for text
+ * types that shrink, a precompressed gzip variant. A WatchService thread evicts entries
+ * whose files change, so edits show up on the next request. Files larger than the
+ * threshold are not cached; StaticFileHandler streams them from disk instead.
+ */
+class StaticAssetCache implements Closeable {
+    static final class Asset {
+        final byte[] content;
+        final byte[] gzipContent;
+        final String contentType;
+        final String etag;
+        final String gzipEtag;
+        final long lastModifiedMillis;
+        final String lastModified;
+
+        Asset(byte[] content, byte[] gzipContent, String contentType, String etag, long lastModifiedMillis) {
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.contentType = contentType;
+            this.etag = "\"" + etag + "\"";
+            // Each encoding is a separate representation, so it needs its own strong ETag
+            this.gzipEtag = "\"" + etag + "-gzip\"";
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.lastModified = java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                java.time.Instant.ofEpochMilli(lastModifiedMillis).atZone(java.time.ZoneOffset.UTC));
+        }
+    }
 
-    public UserHandler(DataPersistence dataPersistence, ProphecyGenerator prophecyGenerator,
-                      Validator userValidator, InMemoryDataPersistence memoryPersistence) {
-        this.dataPersistence = dataPersistence;
-        this.prophecyGenerator = prophecyGenerator;
-        this.userValidator = userValidator;
-        this.memoryPersistence = memoryPersistence;
+    private final Path root;
+    private final long maxCachedBytes;
+    private final Map<Path, Asset> assets = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    // Bumped by the watcher before each batch of removals
+    private final AtomicLong evictions = new AtomicLong();
+    private final WatchService watchService;
+
+    public StaticAssetCache(Path root, long maxCachedBytes) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxCachedBytes = maxCachedBytes;
+        this.watchService = this.root.getFileSystem().newWatchService();
+        Thread watcher = new Thread(this::watch, "static-asset-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Maps a request path to a file under the root, or returns null when the path
+     * escapes the root.
+     */
+    public Path resolve(String requestPath) {
+        Path file = root.resolve(requestPath.substring(1)).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    /** Returns the cached asset for the file, loading it on first use; null if uncacheable. */
+    public Asset get(Path file) throws IOException {
+        Asset asset = assets.get(file);
+        if (asset != null) return asset;
+        if (!Files.isRegularFile(file) || Files.size(file) > maxCachedBytes) return null;
+
+        // Watch before reading, so a change made during the load raises an event. The
+        // watcher may handle that event before the put below, so an eviction pass that
+        // started since the load began means this copy may be stale: serve it once only
+        watchDirectory(file.getParent());
+        long generation = evictions.get();
+        asset = load(file);
+        assets.put(file, asset);
+        if (evictions.get() != generation) assets.remove(file, asset);
+        return asset;
     }
 
     @Override
-    public void handle(HttpExchange exchange) throws IOException {
-        setCORSHeaders(exchange);
-        if (isOptionsRequest(exchange)) {
-            handleOptionsRequest(exchange);
-            return;
-        }
+    public void close() throws IOException {
+        watchService.close();
+    }
 
-        if ("POST".equals(exchange.getRequestMethod())) {
-            handleUserSubmission(exchange);
-        } else {
-            sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+    private Asset load(Path file) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        byte[] content = Files.readAllBytes(file);
+        String contentType = StaticFileHandler.getContentType(file.getFileName().toString());
+        byte[] gzipContent = null;
+        if (isCompressible(contentType)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(content);
+            }
+            if (compressed.size() < content.length) gzipContent = compressed.toByteArray();
         }
+        return new Asset(content, gzipContent, contentType, contentHash(content), lastModified);
     }
 
-    private void handleUserSubmission(HttpExchange exchange) throws IOException {
-        try {
-            String requestBody = new String(exchange.getRequestBody().readAllBytes());
-            User user = parseUserFromJson(requestBody);
-
-            if (userValidator.validate(user)) {
-                ConsultationRecord record = new ConsultationRecord(user, prophecyGenerator);
-                UserCreationTransaction transaction = new UserCreationTransaction(
-                    user, dataPersistence, record, memoryPersistence);
+    private void watchDirectory(Path directory) throws IOException {
+        if (watchedDirectories.add(directory)) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+    }
 
-                if (transaction.commit()) {
-                    String response = String.format("{\"success\":true,\"userId\":\"%s\",\"zodiacSign\":\"%s\"}", 
-                        user.getId(), record.getZodiacSign());
-                    sendJsonResponse(exchange, 200, response);
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            evictions.incrementAndGet();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    assets.clear();
                 } else {
-                    sendJsonResponse(exchange, 500, "{\"error\":\"Transaction failed\"}");
+                    Path changed = directory.resolve((Path) event.context());
+                    assets.remove(changed);
                 }
-            } else {
-                List<String> errors = userValidator.getValidationErrors(user);
-                String errorMessage = String.join(", ", errors);
-                sendJsonResponse(exchange, 400, "{\"error\":\"" + errorMessage + "\"}");
             }
-        } catch (IOException e) {
-            sendJsonResponse(exchange, 500, "{\"error\":\"Internal server error\"}");
+            if (!key.reset()) {
+                watchedDirectories.remove(directory);
+                assets.keySet().removeIf(file -> file.startsWith(directory));
+            }
         }
     }
 
-    private User parseUserFromJson(String json) {
-        User user = new User();
-        json = json.replaceAll("[{}\"\\s]", "");
-        String[] pairs = json.split(",");
-
-        for (String pair : pairs) {
-            String[] keyValue = pair.split(":");
-            if (keyValue.length == 2) {
-                String key = keyValue[0];
-                String value = keyValue[1];
-
-                switch (key) {
-                    case "surname" -> user.setSurname(value);
-                    case "firstName" -> user.setFirstName(value);
-                    case "middleInitial" -> user.setMiddleInitial(value);
-                    case "suffix" -> user.setSuffix(value);
-                    case "gender" -> user.setGender(value);
-                    case "month" -> user.setMonth(Integer.parseInt(value));
-                    case "day" -> user.setDay(Integer.parseInt(value));
-                    case "year" -> user.setYear(Integer.parseInt(value));
-                }
-            }
-        }
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.equals("application/javascript")
+            || contentType.equals("application/json");
+    }
 
-        return user;
+    private static String contentHash(byte[] content) {
+        try {
+            byte[] digest = java.security.MessageDigest.getInstance("SHA-256").digest(content);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
 
-class ConsultationHandler extends BaseHandler {
-    private final DataPersistence dataPersistence;
-    private final ProphecyGenerator prophecyGenerator;
+/**
+ * Serves files under the web root. Files within the cache threshold come from
+ * StaticAssetCache; larger ones, typically media, are streamed from a FileChannel so
+ * their size never reaches the heap. Both paths honour conditional requests and single
+ * byte ranges, so players can seek and resume.
+ */
+class StaticFileHandler extends BaseHandler {
+    private static final class ByteRange {
+        static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
 
-    public ConsultationHandler(DataPersistence dataPersistence, ProphecyGenerator prophecyGenerator) {
-        this.dataPersistence = dataPersistence;
-        this.prophecyGenerator = prophecyGenerator;
-    }
+        final long start;
+        final long end;
 
-    @Override
-    public void handle(HttpExchange exchange) throws IOException {
-        setCORSHeaders(exchange);
-        if (isOptionsRequest(exchange)) {
-            handleOptionsRequest(exchange);
-            return;
+        ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
         }
 
-        if ("GET".equals(exchange.getRequestMethod())) {
-            String query = exchange.getRequestURI().getQuery();
-            if (query != null && query.contains("userId=")) {
-                String userId = extractParameter(query, "userId");
-                User user = dataPersistence.getUserById(userId);
-                if (user != null) {
-                    Prophecy prophecy = prophecyGenerator.generateProphecy(user, new Date());
-                    sendJsonResponse(exchange, 200, prophecy.toJSON());
-                } else {
-                    sendJsonResponse(exchange, 404, "{\"error\":\"User not found\"}");
-                }
-            } else {
-                sendJsonResponse(exchange, 400, "{\"error\":\"Missing userId parameter\"}");
-            }
-        }
+        long length() { return end - start + 1; }
     }
-}
 
-class AdminHandler extends BaseHandler {
-    private final InMemoryDataPersistence dataPersistence;
+    private final StaticAssetCache cache;
 
-    public AdminHandler(InMemoryDataPersistence dataPersistence) {
-        this.dataPersistence = dataPersistence;
+    public StaticFileHandler(StaticAssetCache cache) {
+        this.cache = cache;
     }
 
     @Override
-    public void handle(HttpExchange exchange) throws IOException {
+    protected void handleRequest(HttpExchange exchange) throws IOException {
         setCORSHeaders(exchange);
         if (isOptionsRequest(exchange)) {
             handleOptionsRequest(exchange);
             return;
         }
 
-        String method = exchange.getRequestMethod();
         String path = exchange.getRequestURI().getPath();
+        if (path.equals("/")) path = "/index.html";
 
-        if ("GET".equals(method) && path.contains("/stats")) {
-            handleGetStats(exchange);
-        } else if ("GET".equals(method) && path.contains("/users")) {
-            handleGetAllUsers(exchange);
-        } else if ("DELETE".equals(method) && path.contains("/clear")) {
-            handleClearData(exchange);
-        } else if ("GET".equals(method) && path.contains("/export")) {
-            handleExportData(exchange);
+        Path file = cache.resolve(path);
+        StaticAssetCache.Asset asset = file != null ? cache.get(file) : null;
+        if (asset != null) {
+            sendAsset(exchange, asset);
+        } else if (file != null && Files.isRegularFile(file)) {
+            sendFile(exchange, file);
         } else {
-            sendJsonResponse(exchange, 404, "{\"error\":\"Endpoint not found\"}");
+            byte[] response = ("File not found: " + path).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
         }
     }
 
-    private void handleGetStats(HttpExchange exchange) throws IOException {
-        List<ConsultationRecord> consultations = dataPersistence.getAllConsultations();
-        int totalUsers = consultations.size();
-        long maleUsers = consultations.stream()
-            .filter(c -> "MALE".equals(c.getUser().getGender())).count();
-        long femaleUsers = consultations.stream()
-            .filter(c -> "FEMALE".equals(c.getUser().getGender())).count();
-
-        Date today = new Date();
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-        String todayStr = sdf.format(today);
-
-        long todayConsultations = consultations.stream()
-            .filter(c -> sdf.format(c.getTimestamp()).equals(todayStr))
-            .count();
-
-        String response = String.format(
-            "{\"totalUsers\":%d,\"maleUsers\":%d,\"femaleUsers\":%d,\"todayConsultations\":%d}",
-            totalUsers, maleUsers, femaleUsers, todayConsultations
-        );
-
-        sendJsonResponse(exchange, 200, response);
-    }
-
-    private void handleGetAllUsers(HttpExchange exchange) throws IOException {
-        List<ConsultationRecord> consultations = dataPersistence.getAllConsultations();
-        StringBuilder json = new StringBuilder("[");
-        boolean first = true;
-
-        for (ConsultationRecord record : consultations) {
-            if (!first) json.append(",");
-            json.append(record.exportToJSON());
-            first = false;
+    private void sendAsset(HttpExchange exchange, StaticAssetCache.Asset asset) throws IOException {
+        // Ranges always address the identity encoding
+        ByteRange range = requestedRange(exchange, asset.etag, asset.content.length);
+        boolean gzip = range == null && asset.gzipContent != null && acceptsGzip(exchange);
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Last-Modified", asset.lastModified);
+        headers.set("Accept-Ranges", "bytes");
+        // Files are not fingerprinted, so browsers revalidate each time and usually get a 304
+        headers.set("Cache-Control", "no-cache");
+        if (asset.gzipContent != null) headers.set("Vary", "Accept-Encoding");
+
+        if (isNotModified(exchange, etag, asset.lastModifiedMillis)) {
+            sendWithoutBody(exchange, 304, -1);
+            return;
         }
-        json.append("]");
 
-        sendJsonResponse(exchange, 200, json.toString());
-    }
-
-    private void handleClearData(HttpExchange exchange) throws IOException {
-        dataPersistence.clearAllData();
-        sendJsonResponse(exchange, 200, "{\"success\":true,\"message\":\"All data cleared\"}");
+        headers.set("Content-Type", asset.contentType);
+        if (range == ByteRange.UNSATISFIABLE) {
+            sendUnsatisfiable(exchange, asset.content.length);
+            return;
+        }
+        if (gzip) headers.set("Content-Encoding", "gzip");
+        byte[] body = gzip ? asset.gzipContent : asset.content;
+        int offset = range != null ? (int) range.start : 0;
+        int length = range != null ? (int) range.length() : body.length;
+        int status = range != null ? 206 : 200;
+        if (range != null) headers.set("Content-Range", contentRange(range, body.length));
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            sendWithoutBody(exchange, status, length);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body, offset, length);
+        }
     }
 
-    private void handleExportData(HttpExchange exchange) throws IOException {
-        String format = extractParameter(exchange.getRequestURI().getQuery(), "format");
+    // Streams from the file without buffering it; the channel transfers in bounded chunks
+    private void sendFile(HttpExchange exchange, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long lastModifiedMillis = Files.getLastModifiedTime(file).toMillis();
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedMillis) + "\"";
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Last-Modified", java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                java.time.Instant.ofEpochMilli(lastModifiedMillis).atZone(java.time.ZoneOffset.UTC)));
+            headers.set("Accept-Ranges", "bytes");
+            headers.set("Cache-Control", "no-cache");
+
+            if (isNotModified(exchange, etag, lastModifiedMillis)) {
+                sendWithoutBody(exchange, 304, -1);
+                return;
+            }
 
-        if ("csv".equals(format)) {
-            String csv = generateCSV();
-            exchange.getResponseHeaders().set("Content-Type", "text/csv");
-            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=zodiac_data.csv");
-            exchange.sendResponseHeaders(200, csv.length());
+            headers.set("Content-Type", getContentType(file.getFileName().toString()));
+            ByteRange range = requestedRange(exchange, etag, size);
+            if (range == ByteRange.UNSATISFIABLE) {
+                sendUnsatisfiable(exchange, size);
+                return;
+            }
+            long position = range != null ? range.start : 0;
+            long length = range != null ? range.length() : size;
+            int status = range != null ? 206 : 200;
+            if (range != null) headers.set("Content-Range", contentRange(range, size));
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                sendWithoutBody(exchange, status, length);
+                return;
+            }
+            // A zero length would select chunked encoding, so empty bodies are sent with -1
+            exchange.sendResponseHeaders(status, length > 0 ? length : -1);
             try (OutputStream os = exchange.getResponseBody()) {
-                os.write(csv.getBytes());
+                WritableByteChannel target = Channels.newChannel(os);
+                long end = position + length;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, target);
+                    if (transferred <= 0) throw new EOFException("File shrank while being sent");
+                    position += transferred;
+                }
             }
-        } else {
-            handleGetAllUsers(exchange);
         }
     }
 
-    private String generateCSV() {
-        List<ConsultationRecord> consultations = dataPersistence.getAllConsultations();
-        StringBuilder csv = new StringBuilder();
-        csv.append("Surname,First Name,Middle Initial,Suffix,Gender,Month,Day,Year,Zodiac Sign,Consultation Time\n");
-
-        for (ConsultationRecord record : consultations) {
-            csv.append(record.exportToCSV()).append("\n");
+    /**
+     * Parses a single "bytes=" range. Returns null when the whole representation should be
+     * sent: no Range header, a stale If-Range, or a form this server does not serve, such
+     * as multiple ranges.
+     */
+    private ByteRange requestedRange(HttpExchange exchange, String etag, long size) {
+        Headers request = exchange.getRequestHeaders();
+        String header = request.getFirst("Range");
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) return null;
+        String ifRange = request.getFirst("If-Range");
+        if (ifRange != null && !ifRange.trim().equals(etag)) return null;
+
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return ByteRange.UNSATISFIABLE;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+                if (end < start) return start < size ? null : ByteRange.UNSATISFIABLE;
+            }
+            return start < size ? new ByteRange(start, end) : ByteRange.UNSATISFIABLE;
+        } catch (NumberFormatException e) {
+            return null;
         }
-
-        return csv.toString();
     }
-}
 
-class StaticFileHandler extends BaseHandler {
-    @Override
-    public void handle(HttpExchange exchange) throws IOException {
-        setCORSHeaders(exchange);
-        if (isOptionsRequest(exchange)) {
-            handleOptionsRequest(exchange);
-            return;
-        }
+    private void sendUnsatisfiable(HttpExchange exchange, long size) throws IOException {
+        exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+        sendWithoutBody(exchange, 416, -1);
+    }
 
-        String path = exchange.getRequestURI().getPath();
-        if (path.equals("/")) path = "/index.html";
+    private void sendWithoutBody(HttpExchange exchange, int status, long contentLength) throws IOException {
+        if (contentLength >= 0) exchange.getResponseHeaders().set("Content-Length", Long.toString(contentLength));
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
 
-        File file = new File("." + path);
-        if (file.exists() && file.isFile()) {
-            String contentType = getContentType(path);
-            exchange.getResponseHeaders().set("Content-Type", contentType);
+    private static String contentRange(ByteRange range, long size) {
+        return "bytes " + range.start + "-" + range.end + "/" + size;
+    }
 
-            byte[] fileContent = Files.readAllBytes(file.toPath());
-            exchange.sendResponseHeaders(200, fileContent.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(fileContent);
-            }
-        } else {
-            String response = "File not found: " + path;
-            exchange.sendResponseHeaders(404, response.length());
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response.getBytes());
+    // If-None-Match takes precedence; If-Modified-Since is only consulted without it
+    private boolean isNotModified(HttpExchange exchange, String etag, long lastModifiedMillis) {
+        Headers request = exchange.getRequestHeaders();
+        if (request.containsKey("If-None-Match")) return etagMatches(exchange, etag);
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = java.time.ZonedDateTime.parse(ifModifiedSince,
+                    java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                // HTTP dates have whole-second precision
+                return lastModifiedMillis / 1000 <= since / 1000;
+            } catch (java.time.format.DateTimeParseException e) {
+                return false;
             }
         }
+        return false;
     }
 
-    private String getContentType(String path) {
+    static String getContentType(String path) {
         if (path.endsWith(".html")) return "text/html";
         if (path.endsWith(".css")) return "text/css";
         if (path.endsWith(".js")) return "application/javascript";
         if (path.endsWith(".json")) return "application/json";
         if (path.endsWith(".png")) return "image/png";
         if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
+        if (path.endsWith(".gif")) return "image/gif";
+        if (path.endsWith(".svg")) return "image/svg+xml";
+        if (path.endsWith(".mp4")) return "video/mp4";
+        if (path.endsWith(".webm")) return "video/webm";
         return "text/plain";
     }
 }
@@ -1031,7 +5391,7 @@ class ProphecyHandler extends BaseHandler {
     }
 
     @Override
-    public void handle(HttpExchange exchange) throws IOException {
+    protected void handleRequest(HttpExchange exchange) throws IOException {
         setCORSHeaders(exchange);
         if (isOptionsRequest(exchange)) {
             handleOptionsRequest(exchange);
@@ -1050,34 +5410,477 @@ class ProphecyHandler extends BaseHandler {
     }
 }
 
+/**
+ * Executor for HTTP exchanges with admission control. A task that waited in the queue
+ * longer than the budget, or found the queue full, still runs but is marked as shed, and
+ * the admission filter then answers 503 with Retry-After instead of calling the handler.
+ * Shedding this way keeps the response cheap. Exchanges shed before reaching the queue
+ * are answered on a small pool of their own, never on the HttpServer dispatcher, which
+ * one slow client would otherwise stall; once that pool's queue is full too, execute
+ * throws and HttpServer closes the connection without answering.
+ */
+class RequestExecutor implements Executor {
+    enum Mode {
+        // Fixed pool of platform threads over a bounded queue
+        PLATFORM,
+        // One virtual thread per request; needs Java 21 and falls back to PLATFORM otherwise
+        VIRTUAL,
+        // Fork/join pool with one queue per worker
+        WORK_STEALING;
+
+        static Mode fromProperty(String value) {
+            if ("virtual".equalsIgnoreCase(value)) return VIRTUAL;
+            if ("workstealing".equalsIgnoreCase(value) || "work-stealing".equalsIgnoreCase(value)) return WORK_STEALING;
+            return PLATFORM;
+        }
+    }
+
+    private static final ThreadLocal<Boolean> SHED = new ThreadLocal<>();
+    private static final int REJECTION_THREADS = 2;
+    private static final int REJECTION_QUEUE_CAPACITY = 64;
+    private static final byte[] BUSY_RESPONSE = "{\"error\":\"Server busy, please retry\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final Mode mode;
+    private final int threads;
+    private final int queueCapacity;
+    private final long waitBudgetNanos;
+    private final String retryAfterSeconds;
+    private final ExecutorService delegate;
+    private final ExecutorService rejections;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public RequestExecutor(Mode mode, int threads, int queueCapacity, long waitBudgetMillis) {
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.waitBudgetNanos = TimeUnit.MILLISECONDS.toNanos(waitBudgetMillis);
+        this.retryAfterSeconds = Long.toString(Math.max(1, (waitBudgetMillis + 999) / 1000));
+
+        ExecutorService virtual = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (mode == Mode.VIRTUAL && virtual == null) {
+            System.err.println("Virtual threads need Java 21 or later; using a platform thread pool");
+            mode = Mode.PLATFORM;
+        }
+        this.mode = mode;
+        this.delegate = switch (mode) {
+            case VIRTUAL -> virtual;
+            case WORK_STEALING -> Executors.newWorkStealingPool(threads);
+            case PLATFORM -> new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)));
+        };
+        AtomicInteger rejectionCount = new AtomicInteger();
+        this.rejections = new ThreadPoolExecutor(REJECTION_THREADS, REJECTION_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(REJECTION_QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "request-rejector-" + rejectionCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            shed(command);
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        try {
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                long wait = System.nanoTime() - queuedAt;
+                waitNanos.add(wait);
+                waits.increment();
+                maxWaitNanos.accumulateAndGet(wait, Math::max);
+                run(command, waitBudgetNanos > 0 && wait > waitBudgetNanos);
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            shed(command);
+        }
+    }
+
+    // Rethrows when the rejection queue is full too; HttpServer then closes the connection
+    private void shed(Runnable command) {
+        try {
+            rejections.execute(() -> run(command, true));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            throw e;
+        }
+    }
+
+    /** Filter answering shed exchanges with 503; install it on every context. */
+    public Filter admissionFilter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (Boolean.TRUE.equals(SHED.get())) {
+                    shed.increment();
+                    reject(exchange);
+                } else {
+                    admitted.increment();
+                    chain.doFilter(exchange);
+                }
+            }
+
+            @Override
+            public String description() {
+                return "Sheds requests that waited longer than the queue budget";
+            }
+        };
+    }
+
+    public void writeJSON(JsonWriter writer) {
+        long count = waits.sum();
+        writer.beginObject()
+            .name("mode").value(mode.name().replace("_", "").toLowerCase(Locale.ROOT))
+            .name("threads").value(mode == Mode.VIRTUAL ? 0 : threads)
+            .name("queueCapacity").value(queueCapacity)
+            .name("queueWaitBudgetMs").value(TimeUnit.NANOSECONDS.toMillis(waitBudgetNanos))
+            .name("queueDepth").value(queued.get())
+            .name("running").value(running.get())
+            .name("admitted").value(admitted.sum())
+            .name("shed").value(shed.sum())
+            .name("dropped").value(dropped.sum())
+            .name("averageWaitMicros").value(count > 0 ? waitNanos.sum() / count / 1000 : 0)
+            .name("maxWaitMicros").value(maxWaitNanos.get() / 1000)
+            .endObject();
+    }
+
+    public void writePrometheus(StringBuilder out) {
+        RequestMetrics.writeSample(out, "zodiac_executor_threads", "gauge", "Worker threads (0 for virtual threads)",
+            mode == Mode.VIRTUAL ? 0 : threads);
+        RequestMetrics.writeSample(out, "zodiac_executor_queue_depth", "gauge", "Tasks waiting for a worker", queued.get());
+        RequestMetrics.writeSample(out, "zodiac_executor_running", "gauge", "Tasks running", running.get());
+        RequestMetrics.writeSample(out, "zodiac_executor_admitted_total", "counter", "Requests admitted", admitted.sum());
+        RequestMetrics.writeSample(out, "zodiac_executor_shed_total", "counter", "Requests answered with 503 after waiting too long", shed.sum());
+        RequestMetrics.writeSample(out, "zodiac_executor_dropped_total", "counter",
+            "Connections closed unanswered because even the 503 queue was full", dropped.sum());
+        RequestMetrics.writeSample(out, "zodiac_executor_queue_wait_seconds_total", "counter", "Time tasks spent queued",
+            waitNanos.sum() / 1e9);
+        RequestMetrics.writeSample(out, "zodiac_executor_queue_waits_total", "counter", "Tasks that went through the queue", waits.sum());
+    }
+
+    public int getQueueDepth() { return queued.get(); }
+
+    /** Stops the workers and waits for queued tasks to finish; for servers that are discarded, such as warm-up ones. */
+    public void shutdown() {
+        delegate.shutdown();
+        rejections.shutdown();
+        try {
+            delegate.awaitTermination(5, TimeUnit.SECONDS);
+            rejections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Tasks include connection housekeeping, so requests are counted by the filter instead
+    private void run(Runnable command, boolean shedRequest) {
+        running.incrementAndGet();
+        SHED.set(shedRequest);
+        try {
+            command.run();
+        } finally {
+            SHED.remove();
+            running.decrementAndGet();
+        }
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Content-Type", BaseHandler.JSON_CONTENT_TYPE);
+        headers.set("Retry-After", retryAfterSeconds);
+        exchange.sendResponseHeaders(503, BUSY_RESPONSE.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(BUSY_RESPONSE);
+        }
+    }
+
+    // Looked up reflectively so the server still builds and runs on Java 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
+
+/**
+ * A scripted pass over every endpoint: static files (plain, gzip and ranged), user
+ * submission and import, consultations (fresh, cached, conditional and unknown), the
+ * prophecy endpoint and each admin route, plus a few rejected requests. It loads and
+ * compiles what a real first request would otherwise pay for, so it drives both the
+ * AppCDS training run and the zodiac.warmupRounds warm-up.
+ */
+class TrainingRun {
+    private static final String[] STATIC_PATHS = {"/", "/index.html", "/admin.html", "/script.js", "/style.css", "/assets/logo.png"};
+    private static final String[] SURNAMES = {"SMITH", "GARCIA", "NGUYEN", "OKAFOR", "MUELLER"};
+
+    private final String baseUrl;
+    private int requests;
+
+    TrainingRun(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Runs the script the given number of times and returns the number of requests sent.
+     * With includeRecording the last round also starts, downloads and discards a flight
+     * recording, which is slow but loads the JFR classes into the archive.
+     */
+    public int exercise(int rounds, boolean includeRecording) throws IOException {
+        for (int round = 0; round < rounds; round++) {
+            exerciseRound(round);
+        }
+        if (includeRecording) {
+            send("POST", "/api/admin/recording?settings=default&maxAgeSeconds=60", null, null);
+            send("GET", "/api/admin/recording", null, null);
+            send("DELETE", "/api/admin/recording", null, null);
+        }
+        send("DELETE", "/api/admin/clear", null, null);
+        return requests;
+    }
+
+    private void exerciseRound(int round) throws IOException {
+        for (String path : STATIC_PATHS) {
+            send("GET", path, null, null);
+        }
+        send("GET", "/index.html", null, null, "Accept-Encoding", "gzip");
+        send("GET", "/assets/video.mp4", null, null, "Range", "bytes=0-65535");
+        send("OPTIONS", "/api/users", null, null);
+
+        String surname = SURNAMES[round % SURNAMES.length];
+        String user = userJson(surname, round);
+        String userId = field(send("POST", "/api/users", BaseHandler.JSON_CONTENT_TYPE, user), "userId");
+        send("POST", "/api/users/consult", BaseHandler.JSON_CONTENT_TYPE, userJson(surname, round + 7));
+        send("POST", "/api/users", BaseHandler.JSON_CONTENT_TYPE, "{\"surname\":\"7\",\"month\":13}");
+        send("POST", "/api/users/import", UserImporter.CONTENT_TYPE,
+            userJson(surname, round + 1) + "\n" + userJson(surname, round + 2) + "\n{\"month\":0}\n");
+        send("POST", "/api/users/import?prophecy=false", UserImporter.CONTENT_TYPE, userJson(surname, round + 3) + "\n");
+
+        if (userId != null) {
+            send("GET", "/api/consultations?userId=" + userId, null, null);
+            send("GET", "/api/consultations?userId=" + userId, null, null);
+            send("GET", "/api/consultations?userId=" + userId, null, null, "If-None-Match", "*");
+        }
+        send("GET", "/api/consultations?userId=UNKNOWN", null, null);
+        send("POST", "/api/prophecy", BaseHandler.JSON_CONTENT_TYPE, "{}");
+
+        java.time.LocalDate today = java.time.LocalDate.now();
+        send("GET", "/api/admin/stats", null, null);
+        send("GET", "/api/admin/executor", null, null);
+        send("GET", "/api/admin/metrics", null, null);
+        send("GET", "/api/admin/users", null, null);
+        send("GET", "/api/admin/users?limit=2", null, null);
+        send("GET", "/api/admin/query?name=" + surname + "&sign=Leo&born=1990", null, null);
+        send("GET", "/api/admin/query?type=consultations&gender=FEMALE&from=" + today.minusDays(1) + "&to=" + today, null, null);
+        send("GET", "/api/admin/query?sign=Ophiuchus", null, null);
+        send("GET", "/api/admin/export", null, null);
+        send("GET", "/api/admin/export?format=csv", null, null);
+    }
+
+    private static String userJson(String surname, int variant) {
+        return "{\"surname\":\"" + surname + "\",\"firstName\":\"ALEX\",\"middleInitial\":\"Q\",\"suffix\":\"\","
+            + "\"gender\":\"" + (variant % 2 == 0 ? "FEMALE" : "MALE") + "\",\"month\":" + (1 + variant % 12)
+            + ",\"day\":" + (1 + variant * 5 % 28) + ",\"year\":" + (1950 + variant % 60) + "}";
+    }
+
+    // Enough JSON reading for the string fields of our own responses
+    private static String field(String json, String name) {
+        String key = "\"" + name + "\":\"";
+        int start = json.indexOf(key);
+        if (start < 0) return null;
+        start += key.length();
+        int end = json.indexOf('"', start);
+        return end < 0 ? null : json.substring(start, end);
+    }
+
+    // Returns the response body; client errors are part of the script, server errors fail it
+    private String send(String method, String path, String contentType, String body, String... headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setUseCaches(false);
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        requests++;
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        String response = "";
+        if (in != null) {
+            try (in) {
+                response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        if (status >= 500) {
+            throw new IOException(method + " " + path + " answered " + status + ": " + response);
+        }
+        return response;
+    }
+}
+
 public class ZodiacServer {
     private static final int PORT = 8080;
+    private static final int TRAINING_ROUNDS = 3;
     private static InMemoryDataPersistence dataPersistence;
     private static ProphecyGenerator prophecyGenerator;
     private static Validator userValidator;
 
     public static void main(String[] args) throws IOException {
+        if (Arrays.asList(args).contains("--training-run")) {
+            trainingRun();
+            return;
+        }
+        HttpServer server = start(Integer.getInteger("zodiac.port", PORT));
+        int port = server.getAddress().getPort();
+
+        System.out.println("🌟 Zodiac Prophecy Server started on http://0.0.0.0:" + port);
+        System.out.println("📊 Admin Panel: http://0.0.0.0:" + port + "/admin.html");
+        System.out.println("🔮 Main Application: http://0.0.0.0:" + port + "/index.html");
+    }
+
+    /** Starts a server on the given port (0 picks a free one); embedders stop it themselves. */
+    static HttpServer start(int port) throws IOException {
         initializeComponents();
 
-        HttpServer server = HttpServer.create(new InetSocketAddress("0.0.0.0", PORT), 0);
+        int warmupRounds = Integer.getInteger("zodiac.warmupRounds", 0);
+        if (warmupRounds > 0) {
+            long started = System.nanoTime();
+            int requests = exercise(warmupRounds, false);
+            // The warm-up server is gone and its workers have finished, so nothing records after this
+            RequestMetrics.shared().reset();
+            System.out.println("🔥 Warm-up: " + requests + " requests in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+        }
+
+        HttpServer server = createServer(new InetSocketAddress("0.0.0.0", port), dataPersistence, new ArrayList<>());
+        StartupTimes.shared().ready();
+        server.start();
+        System.out.println("⏱️ Listening " + StartupTimes.shared().getReadyMillis() + " ms after JVM start");
+        return server;
+    }
 
-        server.createContext("/", new StaticFileHandler());
-        server.createContext("/api/users", new UserHandler(dataPersistence, prophecyGenerator, userValidator, dataPersistence));
-        server.createContext("/api/consultations", new ConsultationHandler(dataPersistence, prophecyGenerator));
-        server.createContext("/api/admin", new AdminHandler(dataPersistence));
-        server.createContext("/api/prophecy", new ProphecyHandler(prophecyGenerator));
+    /**
+     * Exercises every endpoint and exits, for recording an AppCDS archive with
+     * -XX:ArchiveClassesAtExit. Uses an in-memory store even when zodiac.dataDir is set.
+     */
+    private static void trainingRun() throws IOException {
+        initializeServices();
+        long started = System.nanoTime();
+        int requests = exercise(TRAINING_ROUNDS, true);
+        System.out.println("🎓 Training run: " + requests + " requests in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+    }
 
-        server.setExecutor(Executors.newFixedThreadPool(10));
+    // Runs the training script against a loopback server with its own empty store, then discards it
+    private static int exercise(int rounds, boolean includeRecording) throws IOException {
+        List<Closeable> resources = new ArrayList<>();
+        InMemoryDataPersistence scratch = new InMemoryDataPersistence(
+            ConsultationLog.Layout.fromProperty(System.getProperty("zodiac.consultationStore")));
+        HttpServer server = createServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), scratch, resources);
         server.start();
+        try {
+            TrainingRun run = new TrainingRun("http://127.0.0.1:" + server.getAddress().getPort());
+            return run.exercise(rounds, includeRecording);
+        } finally {
+            server.stop(0);
+            for (Closeable resource : resources) {
+                resource.close();
+            }
+        }
+    }
+
+    // Binds but does not start the server; resources collects what must be closed once it is stopped
+    private static HttpServer createServer(InetSocketAddress address, InMemoryDataPersistence store,
+                                           List<Closeable> resources) throws IOException {
+        // Headers and body go out as separate writes; with Nagle on, the body waits for the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(address, 0);
+        RequestExecutor executor = createExecutor();
+        StaticAssetCache staticAssets = new StaticAssetCache(Paths.get("."),
+            Long.getLong("zodiac.staticCacheMaxKb", 1024) * 1024);
+        ProphecyResponseCache prophecyResponses = new ProphecyResponseCache(Integer.getInteger("zodiac.prophecyCacheSize", 10000));
+        UserImporter importer = new UserImporter(store, prophecyGenerator, userValidator,
+            Integer.getInteger("zodiac.importThreads", Runtime.getRuntime().availableProcessors()));
+        resources.add(executor::shutdown);
+        resources.add(staticAssets);
+        resources.add(importer::shutdown);
+
+        List<HttpContext> contexts = List.of(
+            server.createContext("/", new StaticFileHandler(staticAssets)),
+            server.createContext("/api/users", new UserHandler(store, prophecyGenerator, userValidator, store, importer)),
+            server.createContext("/api/consultations", new ConsultationHandler(store, prophecyGenerator, prophecyResponses)),
+            server.createContext("/api/admin", new AdminHandler(store, executor, new FlightRecorderControl(), prophecyResponses)),
+            server.createContext("/api/prophecy", new ProphecyHandler(prophecyGenerator)));
+        Filter admission = executor.admissionFilter();
+        for (HttpContext context : contexts) {
+            context.getFilters().add(admission);
+        }
+
+        server.setExecutor(executor);
+        return server;
+    }
 
-        System.out.println("🌟 Zodiac Prophecy Server started on http://0.0.0.0:" + PORT);
-        System.out.println("📊 Admin Panel: http://0.0.0.0:" + PORT + "/admin.html");
-        System.out.println("🔮 Main Application: http://0.0.0.0:" + PORT + "/index.html");
+    private static void initializeComponents() throws IOException {
+        dataPersistence = createDataPersistence();
+        initializeServices();
     }
 
-    private static void initializeComponents() {
-        dataPersistence = new InMemoryDataPersistence();
-        prophecyGenerator = new ZodiacProphecyGenerator();
+    private static void initializeServices() {
+        prophecyGenerator = new ZodiacProphecyGenerator(
+            ZodiacProphecyGenerator.SeedMode.fromProperty(System.getProperty("zodiac.seedMode")));
         userValidator = new UserValidator();
     }
+
+    private static RequestExecutor createExecutor() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new RequestExecutor(
+            RequestExecutor.Mode.fromProperty(System.getProperty("zodiac.executor")),
+            Integer.getInteger("zodiac.threads", Math.max(10, cores * 2)),
+            Integer.getInteger("zodiac.queueCapacity", 1000),
+            Long.getLong("zodiac.queueWaitBudgetMs", 500));
+    }
+
+    // Durable storage is enabled by pointing zodiac.dataDir at a writable directory
+    private static InMemoryDataPersistence createDataPersistence() throws IOException {
+        ConsultationLog.Layout layout = ConsultationLog.Layout.fromProperty(System.getProperty("zodiac.consultationStore"));
+        String dataDir = System.getProperty("zodiac.dataDir");
+        if (dataDir == null || dataDir.isEmpty()) {
+            return new InMemoryDataPersistence(layout);
+        }
+
+        DurableDataPersistence durable = new DurableDataPersistence(Paths.get(dataDir), layout,
+            WriteAheadLog.FsyncPolicy.fromProperty(System.getProperty("zodiac.fsync")),
+            Long.getLong("zodiac.fsyncIntervalMs", 100),
+            Integer.getInteger("zodiac.walSegmentMb", 64) * 1024 * 1024);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                durable.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close data store: " + e.getMessage());
+            }
+        }));
+        System.out.println("💾 Durable storage: " + dataDir + " (" + durable.getAllUsers().size() + " users restored)");
+        return durable;
+    }
 }
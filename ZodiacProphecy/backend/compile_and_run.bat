@@ -4,7 +4,7 @@ echo Compiling and running Zodiac Prophecy Server...
 echo.
 
 cd backend
-javac ZodiacServer.java
+javac -encoding UTF-8 -d classes ZodiacServer.java
 if %ERRORLEVEL% NEQ 0 (
     echo Compilation failed!
     pause
@@ -14,5 +14,5 @@ if %ERRORLEVEL% NEQ 0 (
 echo Compilation successful!
 echo Starting server...
 echo.
-java ZodiacServer
+java -cp classes zodiac.ZodiacServer
 pause
@@ -4,7 +4,7 @@ echo "Compiling and running Zodiac Prophecy Server..."
 echo
 
 cd backend
-javac ZodiacServer.java
+javac -encoding UTF-8 -d classes ZodiacServer.java
 if [ $? -ne 0 ]; then
     echo "Compilation failed!"
     exit 1
@@ -13,4 +13,4 @@ fi
 echo "Compilation successful!"
 echo "Starting server..."
 echo
-java ZodiacServer
+java -cp classes zodiac.ZodiacServer
@@ -0,0 +1,159 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AdminPaginationTest {
+    private static final Pattern PROPHECY_ID = Pattern.compile("\"prophecyId\":\"([^\"]*)\"");
+    private static final Pattern NEXT_CURSOR = Pattern.compile("\"nextCursor\":(null|\"([^\"]*)\")");
+    private static final int CONSULTATIONS = 25;
+
+    private InMemoryDataPersistence store;
+    private HttpServer server;
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        List<String> prophecyIds() {
+            List<String> ids = new ArrayList<>();
+            Matcher matcher = PROPHECY_ID.matcher(body);
+            while (matcher.find()) ids.add(matcher.group(1));
+            return ids;
+        }
+
+        String nextCursor() {
+            Matcher matcher = NEXT_CURSOR.matcher(body);
+            if (!matcher.find()) throw new AssertionError("No nextCursor in " + body);
+            return matcher.group(2);
+        }
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        store = new InMemoryDataPersistence(ConsultationLog.Layout.COLUMNAR);
+        for (int i = 1; i <= CONSULTATIONS; i++) {
+            User user = new User("SMITH", "JOHN", "", "", "MALE", 7, 30, 1990);
+            store.saveUser(user);
+            store.addConsultation(new ConsultationRecord(user, new Date(), ZodiacSign.LEO, "PROPHECY_" + i));
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/admin", new AdminHandler(store, null, null, new ProphecyResponseCache(0)));
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void pagesCoverEveryConsultationOnce() throws IOException {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            Response page = request("GET", "/api/admin/users?limit=10" + (cursor != null ? "&cursor=" + cursor : ""));
+            assertEquals(200, page.status);
+            seen.addAll(page.prophecyIds());
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= CONSULTATIONS; i++) expected.add("PROPHECY_" + i);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    void unpagedRequestIsAPlainArray() throws IOException {
+        Response all = request("GET", "/api/admin/users");
+        assertEquals(200, all.status);
+        assertEquals('[', all.body.charAt(0));
+        assertEquals(CONSULTATIONS, all.prophecyIds().size());
+
+        // A cursor alone pages with the largest page size
+        Response fromCursor = request("GET", "/api/admin/users?cursor=" + request("GET", "/api/admin/users?limit=20").nextCursor());
+        assertEquals(List.of("PROPHECY_21", "PROPHECY_22", "PROPHECY_23", "PROPHECY_24", "PROPHECY_25"), fromCursor.prophecyIds());
+        assertNull(fromCursor.nextCursor());
+    }
+
+    @Test
+    void limitMustBeWithinBounds() throws IOException {
+        assertEquals(200, request("GET", "/api/admin/users?limit=1").status);
+        assertEquals(200, request("GET", "/api/admin/users?limit=1000").status);
+        for (String limit : new String[] {"0", "-1", "1001", "abc", "99999999999"}) {
+            assertEquals(400, request("GET", "/api/admin/users?limit=" + limit).status, limit);
+        }
+    }
+
+    @Test
+    void cursorsExpireWhenDataIsCleared() throws IOException {
+        String cursor = request("GET", "/api/admin/users?limit=10").nextCursor();
+        assertNotNull(cursor);
+        assertEquals(200, request("GET", "/api/admin/users?limit=10&cursor=" + cursor).status);
+
+        assertEquals(200, request("DELETE", "/api/admin/clear").status);
+
+        assertEquals(400, request("GET", "/api/admin/users?limit=10&cursor=" + cursor).status);
+    }
+
+    @Test
+    void malformedOrOutOfRangeCursorsAreRejected() throws IOException {
+        // Generation 0 with an index past the end, and with a negative index
+        String pastEnd = Long.toString(CONSULTATIONS + 1, Character.MAX_RADIX);
+        String negative = Long.toString(0xFFFFFFFFL, Character.MAX_RADIX);
+        String otherGeneration = Long.toString(1L << 32, Character.MAX_RADIX);
+        for (String cursor : new String[] {"not-a-cursor", pastEnd, negative, otherGeneration}) {
+            assertEquals(400, request("GET", "/api/admin/users?limit=10&cursor=" + cursor).status, cursor);
+        }
+        String atEnd = Long.toString(CONSULTATIONS, Character.MAX_RADIX);
+        Response empty = request("GET", "/api/admin/users?limit=10&cursor=" + atEnd);
+        assertEquals(200, empty.status);
+        assertEquals(0, empty.prophecyIds().size());
+        assertNull(empty.nextCursor());
+    }
+
+    private Response request(String method, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+            "http://127.0.0.1:" + server.getAddress().getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        try {
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String body = "";
+            if (in != null) {
+                try (in) {
+                    body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+            return new Response(status, body);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
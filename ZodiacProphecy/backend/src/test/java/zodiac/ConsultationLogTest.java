@@ -0,0 +1,61 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+class ConsultationLogTest {
+    private static ConsultationRecord record(String gender, int month, int day) {
+        User user = new User("SMITH", "JOHN", "", "", gender, month, day, 1990);
+        user.setId("USER_" + gender);
+        return new ConsultationRecord(user, new Date(), ZodiacSign.LEO, "PROPHECY_1");
+    }
+
+    @Test
+    void columnarLogKeepsPublishingPastManyDistinctGenders() {
+        ConsultationLog log = new ConsultationLog(0, ConsultationLog.Layout.COLUMNAR);
+        for (int i = 0; i < 300; i++) {
+            log.append(record("G" + i, 7, 30));
+        }
+        log.append(record("G1", 7, 30));
+
+        assertEquals(301, log.size());
+        assertEquals("G299", log.get(299).getGender());
+        assertEquals("G1", log.get(300).getGender());
+    }
+
+    @Test
+    void rejectedRecordLeavesNoHole() {
+        for (ConsultationLog.Layout layout : ConsultationLog.Layout.values()) {
+            ConsultationLog log = new ConsultationLog(0, layout);
+            log.append(record("MALE", 7, 30));
+            if (layout == ConsultationLog.Layout.COLUMNAR) {
+                assertThrows(IllegalArgumentException.class, () -> log.append(record("MALE", 300, 30)));
+            }
+            assertThrows(IllegalArgumentException.class,
+                () -> log.append(new ConsultationRecord(new User(), new Date(), null, "PROPHECY_2")));
+            log.append(record("FEMALE", 2, 14));
+
+            assertEquals(2, log.size(), layout.name());
+            assertEquals("FEMALE", log.get(1).getGender());
+        }
+    }
+
+    @Test
+    void columnarLogKeepsGeneratedAndLegacyUserIds() {
+        ConsultationLog log = new ConsultationLog(0, ConsultationLog.Layout.COLUMNAR);
+        String generated = IdGenerator.format(InMemoryDataPersistence.USER_ID_PREFIX, IdGenerator.shared().nextId());
+        String[] ids = {generated, "USER_" + Long.MAX_VALUE, "USER_0", "USER_99999999999999999999", "legacy-7", null};
+        for (String id : ids) {
+            ConsultationRecord record = record("MALE", 7, 30);
+            record.getUser().setId(id);
+            log.append(record);
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], log.get(i).getUserId(), String.valueOf(ids[i]));
+        }
+    }
+}
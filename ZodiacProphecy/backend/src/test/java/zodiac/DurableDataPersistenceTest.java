@@ -0,0 +1,100 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DurableDataPersistenceTest {
+    @TempDir
+    Path directory;
+
+    private DurableDataPersistence open() throws IOException {
+        return open(1024 * 1024);
+    }
+
+    private DurableDataPersistence open(int segmentBytes) throws IOException {
+        return new DurableDataPersistence(directory, ConsultationLog.Layout.COLUMNAR,
+            WriteAheadLog.FsyncPolicy.ALWAYS, 100, segmentBytes);
+    }
+
+    private static List<ConsultationRecord> batch(int size) {
+        List<ConsultationRecord> records = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            User user = new User("SMITH", "JOHN", "", "", "MALE", 7, 1 + i % 28, 1990);
+            records.add(new ConsultationRecord(user, new Date(), ZodiacSign.LEO, "PROPHECY_" + (i + 1)));
+        }
+        return records;
+    }
+
+    @Test
+    void rejectedConsultationIsNotLoggedAndRestartSucceeds() throws IOException {
+        // Not closed, as after a crash: close would snapshot, and the restart must replay the log
+        DurableDataPersistence store = open();
+        User user = new User("SMITH", "JOHN", "", "", "MALE", 7, 30, 1990);
+        store.saveUser(user);
+        store.addConsultation(new ConsultationRecord(user, new Date(), ZodiacSign.LEO, "PROPHECY_1"));
+        User invalid = new User("DOE", "JANE", "", "", "FEMALE", 300, 14, 1985);
+        store.saveUser(invalid);
+        assertThrows(IllegalArgumentException.class,
+            () -> store.addConsultation(new ConsultationRecord(invalid, new Date(), ZodiacSign.AQUARIUS, "PROPHECY_2")));
+        store.addConsultation(new ConsultationRecord(user, new Date(), ZodiacSign.LEO, "PROPHECY_3"));
+
+        try (DurableDataPersistence restored = open()) {
+            assertEquals(2, restored.getAllConsultations().size());
+            assertEquals("PROPHECY_3", restored.getAllConsultations().get(1).getProphecyId());
+        }
+    }
+
+    @Test
+    void batchIsReplayedAsApplied() throws IOException {
+        DurableDataPersistence store = open();
+        store.saveAll(batch(3));
+
+        try (DurableDataPersistence restored = open()) {
+            assertEquals(3, restored.getUserCount());
+            assertEquals(3, restored.getAllConsultations().size());
+            assertEquals("PROPHECY_3", restored.getAllConsultations().get(2).getProphecyId());
+        }
+    }
+
+    // Larger than one segment, so the batch goes to the log as several records. Closed before
+    // reopening, as rolling segments starts a snapshot that drops the segments it covers
+    @Test
+    void batchLargerThanASegmentIsStoredWhole() throws IOException {
+        try (DurableDataPersistence store = open(64 * 1024)) {
+            store.saveAll(batch(2000));
+            assertEquals(2000, store.getAllConsultations().size());
+        }
+
+        try (DurableDataPersistence restored = open(64 * 1024)) {
+            assertEquals(2000, restored.getUserCount());
+            assertEquals(2000, restored.getAllConsultations().size());
+            assertEquals("PROPHECY_2000", restored.getAllConsultations().get(1999).getProphecyId());
+        }
+    }
+
+    // A consultation too large for the log fails its batch before anything of it is applied
+    @Test
+    void batchThatCannotBeLoggedIsNotApplied() throws IOException {
+        DurableDataPersistence store = open(4096);
+        store.saveAll(batch(1));
+        List<ConsultationRecord> records = batch(2);
+        records.get(1).getUser().setSurname("S".repeat(5000));
+        assertThrows(UncheckedIOException.class, () -> store.saveAll(records));
+
+        assertEquals(2, store.getUserCount());
+        assertEquals(2, store.getAllConsultations().size());
+        try (DurableDataPersistence restored = open(4096)) {
+            assertEquals(2, restored.getUserCount());
+            assertEquals(2, restored.getAllConsultations().size());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+class IdGeneratorTest {
+    private static final long MILLIS_SHIFT = 22;
+
+    // Far more than the 4096 ids one millisecond holds, so the sequence overflows many times
+    @Test
+    void idsIncreaseThroughSequenceOverflow() {
+        IdGenerator generator = new IdGenerator(3);
+        long previous = generator.nextId();
+        for (int i = 0; i < 200_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous, "id " + i);
+            assertEquals(3, id >>> 12 & 0x3FF);
+            previous = id;
+        }
+    }
+
+    // A clock behind the last id, as after a step back or a restore, must not repeat ids
+    @Test
+    void idsKeepIncreasingWhenTheClockIsBehind() {
+        IdGenerator generator = new IdGenerator(0);
+        long aheadMillis = System.currentTimeMillis() - IdGenerator.EPOCH_MILLIS + 3_600_000L;
+        long ahead = aheadMillis << MILLIS_SHIFT | 4095;
+        generator.advancePast(ahead);
+
+        long previous = ahead;
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous, "id " + i);
+            previous = id;
+        }
+        assertEquals(aheadMillis + 3, previous >>> MILLIS_SHIFT);
+    }
+
+    @Test
+    void concurrentIdsAreUnique() throws Exception {
+        IdGenerator generator = new IdGenerator(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<long[]>> batches = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                batches.add(pool.submit(() -> {
+                    long[] ids = new long[50_000];
+                    for (int i = 0; i < ids.length; i++) ids[i] = generator.nextId();
+                    return ids;
+                }));
+            }
+            Set<Long> seen = new HashSet<>();
+            for (Future<long[]> batch : batches) {
+                for (long id : batch.get()) assertTrue(seen.add(id), "duplicate " + id);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void nodesNeverCollide() {
+        long first = new IdGenerator(1).nextId();
+        long second = new IdGenerator(2).nextId();
+        assertNotEquals(first, second);
+        assertThrows(IllegalArgumentException.class, () -> new IdGenerator(-1));
+        assertThrows(IllegalArgumentException.class, () -> new IdGenerator(IdGenerator.MAX_NODE_ID + 1));
+    }
+
+    @Test
+    void formatAndParseRoundTrip() {
+        long[] ids = {1, 9, 10, 4_096, new IdGenerator(7).nextId(), Long.MAX_VALUE};
+        for (long id : ids) {
+            String text = IdGenerator.format("USER_", id);
+            assertEquals(id, IdGenerator.parse("USER_", text), text);
+        }
+    }
+
+    @Test
+    void parseRejectsAnythingFormatCannotMake() {
+        String[] values = {null, "", "USER_", "USER_0", "USER_01", "USER_-1", "USER_+1", "USER_1a", "USER_ 1",
+            "PROPHECY_1", "user_1", "USER_9223372036854775808", "USER_9999999999999999999", "USER_10000000000000000000"};
+        for (String value : values) {
+            assertEquals(0, IdGenerator.parse("USER_", value), String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class InMemoryDataPersistenceTest {
+    private static final int WRITERS = 4;
+
+    // A save racing a clear must land in both the map and the index, or in neither
+    @Test
+    void savesRacingClearsKeepIndexAndUsersInStep() throws Exception {
+        InMemoryDataPersistence store = new InMemoryDataPersistence();
+        UserQuery smiths = new UserQuery("SMITH", null, Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong legacyIds = new AtomicLong();
+        try {
+            for (int round = 0; round < 20; round++) {
+                stop.set(false);
+                Future<?>[] writers = new Future<?>[WRITERS];
+                for (int i = 0; i < WRITERS; i++) {
+                    // Half the writers use ids from before the 64-bit format, which live in their own map
+                    boolean legacy = i % 2 == 1;
+                    writers[i] = pool.submit(() -> {
+                        while (!stop.get()) {
+                            User user = new User("SMITH", "JOHN", "", "", "MALE", 7, 30, 1990);
+                            if (legacy) user.setId("legacy-" + legacyIds.incrementAndGet());
+                            store.saveUser(user);
+                        }
+                    });
+                }
+                for (int i = 0; i < 200; i++) {
+                    store.clearAllData();
+                }
+                stop.set(true);
+                for (Future<?> writer : writers) {
+                    writer.get(10, TimeUnit.SECONDS);
+                }
+
+                Set<String> indexed = new HashSet<>();
+                Iterator<User> found = store.findUsers(smiths, UserIndex.Access.NAME);
+                found.forEachRemaining(user -> indexed.add(user.getId()));
+                Set<String> stored = new HashSet<>();
+                store.getAllUsers().forEach(user -> stored.add(user.getId()));
+                assertEquals(stored, indexed, "round " + round);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class LongUserMapTest {
+    private static final int THREADS = 8;
+
+    private static User user(long key) {
+        User user = new User();
+        user.setId("USER_" + key);
+        return user;
+    }
+
+    @Test
+    void updateReplacesAndReturnsThePreviousUser() {
+        LongUserMap map = new LongUserMap();
+        User first = user(42);
+        User second = user(42);
+
+        assertNull(map.update(42, previous -> first));
+        assertSame(first, map.update(42, previous -> {
+            assertSame(first, previous);
+            return second;
+        }));
+        assertSame(second, map.get(42));
+        assertEquals(1, map.size());
+        assertNull(map.get(43));
+        assertNull(map.get(0));
+        assertThrows(IllegalArgumentException.class, () -> map.update(0, previous -> first));
+    }
+
+    // Sequential keys are what IdGenerator produces, so they must spread over stripes and slots
+    @Test
+    void growsThroughManyResizes() {
+        LongUserMap map = new LongUserMap();
+        for (long key = 1; key <= 100_000; key++) {
+            User user = user(key);
+            map.update(key, previous -> user);
+        }
+        assertEquals(100_000, map.size());
+        for (long key = 1; key <= 100_000; key++) {
+            assertEquals("USER_" + key, map.get(key).getId());
+        }
+        Set<String> iterated = new HashSet<>();
+        map.forEach(user -> iterated.add(user.getId()));
+        assertEquals(100_000, iterated.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+        assertEquals(false, map.iterator().hasNext());
+    }
+
+    // Readers never lock, so a key once inserted must stay visible while its stripe resizes
+    @Test
+    void concurrentWritersAndReadersDuringResize() throws Exception {
+        LongUserMap map = new LongUserMap();
+        int perThread = 20_000;
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            Future<Integer> reader = pool.submit(() -> {
+                int checks = 0;
+                while (writing.get()) {
+                    // Thread 0 writes keys in order, so every key below the highest seen must be present
+                    for (long key = 1; key <= perThread; key++) {
+                        if (map.get(key * THREADS) == null) break;
+                        checks++;
+                        for (long earlier = Math.max(1, key - 8); earlier < key; earlier++) {
+                            assertNotNull(map.get(earlier * THREADS), "lost key " + earlier * THREADS);
+                        }
+                    }
+                }
+                return checks;
+            });
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t;
+                writers.add(pool.submit(() -> {
+                    for (long i = 1; i <= perThread; i++) {
+                        long key = i * THREADS - offset;
+                        User user = user(key);
+                        map.update(key, previous -> user);
+                        // Overlapping updates of one shared key must never interleave
+                        map.update(1_000_000_007L, previous -> previous == null ? user(1) : user(Long.parseLong(
+                            previous.getId().substring(5)) + 1));
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) writer.get();
+            writing.set(false);
+            reader.get();
+
+            assertEquals(THREADS * perThread + 1, map.size());
+            assertEquals("USER_" + THREADS * perThread, map.get(1_000_000_007L).getId());
+            for (long key = 1; key <= (long) THREADS * perThread; key++) {
+                assertEquals("USER_" + key, map.get(key).getId());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pins the compatible seed mode to the prophecies of the original generator. The rewrite
+ * reproduces String.hashCode chains, the category text period and the sign of every pick
+ * by hand, so any change there shows up here as different wording.
+ */
+class ProphecyGoldenTest {
+    private static Locale previousLocale;
+
+    @BeforeAll
+    static void pinLocale() {
+        // The week of year in the seed follows the default locale's calendar rules
+        previousLocale = Locale.getDefault();
+        Locale.setDefault(Locale.ROOT);
+    }
+
+    @AfterAll
+    static void restoreLocale() {
+        Locale.setDefault(previousLocale);
+    }
+
+    @Test
+    void compatibleSeedModeMatchesOriginalGenerator() throws IOException {
+        ZodiacProphecyGenerator generator = new ZodiacProphecyGenerator(ZodiacProphecyGenerator.SeedMode.COMPATIBLE);
+        List<String> mismatches = new ArrayList<>();
+        int cases = 0;
+        for (String[] row : readGolden()) {
+            cases++;
+            User user = new User(row[0], row[1], "", "", "MALE",
+                Integer.parseInt(row[2]), Integer.parseInt(row[3]), Integer.parseInt(row[4]));
+            Date date = at(LocalDate.parse(row[5]), 12);
+            Date now = at(LocalDate.parse(row[6]), Integer.parseInt(row[7]) * ProphecyResponseCache.WINDOW_HOURS + 1);
+
+            Prophecy prophecy = generator.generateProphecy(user, date, now);
+            String[] actual = {prophecy.getZodiacSign().getDisplayName(), prophecy.getMainProphecy(),
+                prophecy.getLoveProphecy(), prophecy.getCareerProphecy(), prophecy.getHealthProphecy(),
+                prophecy.getMoneyProphecy()};
+            for (int i = 0; i < actual.length; i++) {
+                if (!row[8 + i].equals(actual[i])) {
+                    mismatches.add(String.join(" ", row[0], row[1], row[2] + "/" + row[3] + "/" + row[4], row[5],
+                        "at " + row[6] + " window " + row[7]) + ": expected <" + row[8 + i] + "> but was <" + actual[i] + ">");
+                }
+            }
+        }
+        assertTrue(cases > 0, "no golden cases");
+        assertEquals(List.of(), mismatches.subList(0, Math.min(5, mismatches.size())),
+            mismatches.size() + " fields differ from the original generator");
+    }
+
+    private static Date at(LocalDate day, int hour) {
+        return Date.from(day.atTime(hour, 0).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static List<String[]> readGolden() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (InputStream in = ProphecyGoldenTest.class.getResourceAsStream("golden-prophecies.tsv");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                rows.add(line.split("\t", -1));
+            }
+        }
+        return rows;
+    }
+}
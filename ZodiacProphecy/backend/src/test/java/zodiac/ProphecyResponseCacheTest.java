@@ -0,0 +1,131 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ProphecyResponseCacheTest {
+    private static final long WINDOW_MILLIS = ProphecyResponseCache.WINDOW_HOURS * 3_600_000L;
+    private static final int THREADS = 8;
+
+    @Test
+    void requestsCrossingABoundaryTogetherShareOneWindow() throws Exception {
+        ProphecyResponseCache cache = new ProphecyResponseCache(100);
+        long now = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < 200; round++) {
+                // Every round expires the window the previous round installed
+                Date next = new Date(now + round * WINDOW_MILLIS);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<ProphecyResponseCache.Window>> windows = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    windows.add(pool.submit(() -> {
+                        start.await();
+                        return cache.window(next);
+                    }));
+                }
+                start.countDown();
+                ProphecyResponseCache.Window first = windows.get(0).get();
+                for (Future<ProphecyResponseCache.Window> window : windows) {
+                    assertSame(first, window.get());
+                }
+                assertSame(first, cache.window(next));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void herdAtABoundaryRendersOnce() throws Exception {
+        ProphecyResponseCache cache = new ProphecyResponseCache(100);
+        long now = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < 200; round++) {
+                Date next = new Date(now + round * WINDOW_MILLIS);
+                AtomicInteger renders = new AtomicInteger();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<byte[]>> bodies = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    bodies.add(pool.submit(() -> {
+                        start.await();
+                        return cache.getOrLoad(cache.window(next), "USER_1", id -> {
+                            renders.incrementAndGet();
+                            return new byte[] {1};
+                        });
+                    }));
+                }
+                start.countDown();
+                for (Future<byte[]> body : bodies) {
+                    assertArrayEquals(new byte[] {1}, body.get());
+                }
+                assertEquals(1, renders.get(), "round " + round);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void clearDropsCachedResponses() {
+        ProphecyResponseCache cache = new ProphecyResponseCache(100);
+        Date now = new Date();
+        byte[] body = {1, 2, 3};
+        cache.put(cache.window(now), "USER_1", body);
+        assertArrayEquals(body, cache.get(cache.window(now), "USER_1"));
+
+        cache.clear();
+
+        assertNull(cache.get(cache.window(now), "USER_1"));
+    }
+
+    @Test
+    void clearingDataForgetsCachedConsultations() throws IOException {
+        InMemoryDataPersistence store = new InMemoryDataPersistence(ConsultationLog.Layout.OBJECTS);
+        User user = new User("SMITH", "JOHN", "", "", "MALE", 7, 30, 1990);
+        user.setId("USER_1");
+        store.saveUser(user);
+        ProphecyResponseCache cache = new ProphecyResponseCache(100);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/consultations", new ConsultationHandler(store, new ZodiacProphecyGenerator(), cache));
+        server.createContext("/api/admin", new AdminHandler(store, null, null, cache));
+        server.start();
+        try {
+            assertEquals(200, status(server, "GET", "/api/consultations?userId=USER_1"));
+            assertEquals(200, status(server, "DELETE", "/api/admin/clear"));
+            assertEquals(404, status(server, "GET", "/api/consultations?userId=USER_1"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static int status(HttpServer server, String method, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+            "http://127.0.0.1:" + server.getAddress().getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
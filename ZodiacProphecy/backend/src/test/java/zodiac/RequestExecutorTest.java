@@ -0,0 +1,52 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RequestExecutorTest {
+    // The caller is the HttpServer dispatcher, so a shed exchange must not run on it
+    @Test
+    void shedExchangesLeaveTheCallingThread() throws Exception {
+        RequestExecutor executor = new RequestExecutor(RequestExecutor.Mode.PLATFORM, 1, 0, 0);
+        try {
+            CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+            executor.execute(() -> ranOn.complete(Thread.currentThread()));
+
+            Thread thread = ranOn.get(5, TimeUnit.SECONDS);
+            assertNotSame(Thread.currentThread(), thread);
+            assertTrue(thread.isDaemon());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Throwing from execute is how an Executor makes HttpServer close the connection
+    @Test
+    void fullRejectionQueueRefusesInsteadOfQueueing() {
+        RequestExecutor executor = new RequestExecutor(RequestExecutor.Mode.PLATFORM, 1, 0, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            assertThrows(RejectedExecutionException.class, () -> {
+                for (int i = 0; i < 1000; i++) {
+                    executor.execute(() -> {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                }
+            });
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
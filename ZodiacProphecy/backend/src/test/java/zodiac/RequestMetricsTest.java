@@ -0,0 +1,121 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class RequestMetricsTest {
+    // Text exposition format 0.0.4: name, optional labels with escaped values, then a number
+    private static final String LABEL_VALUE = "\"(?:[^\"\\\\\\n]|\\\\[\\\\\"n])*\"";
+    private static final String LABEL = "[a-zA-Z_][a-zA-Z0-9_]*=" + LABEL_VALUE;
+    private static final Pattern SAMPLE = Pattern.compile(
+        "([a-zA-Z_:][a-zA-Z0-9_:]*)(?:\\{(" + LABEL + "(?:," + LABEL + ")*)\\})? (-?[0-9.eE+-]+|\\+Inf|NaN)");
+    private static final Pattern COMMENT = Pattern.compile("# (HELP|TYPE) ([a-zA-Z_:][a-zA-Z0-9_:]*) .+");
+    private static final String DURATION = "zodiac_http_request_duration_seconds";
+
+    private static String expose(RequestMetrics metrics) {
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out);
+        return out.toString();
+    }
+
+    @Test
+    void everyLineIsValidExposition() {
+        RequestMetrics metrics = new RequestMetrics();
+        metrics.record("/api/users", "GET", 200, 50_000, 0, 120);
+        metrics.record("/api/users", "POST", 201, 3_000_000, 80, 40);
+        metrics.record("/a\"b\\c\nd", "GET", 0, 1_000, 0, 0);
+
+        Set<String> typed = new HashSet<>();
+        Set<String> helped = new HashSet<>();
+        for (String line : expose(metrics).split("\n")) {
+            Matcher comment = COMMENT.matcher(line);
+            if (comment.matches()) {
+                Set<String> seen = comment.group(1).equals("TYPE") ? typed : helped;
+                assertTrue(seen.add(comment.group(2)), "repeated " + line);
+                continue;
+            }
+            Matcher sample = SAMPLE.matcher(line);
+            assertTrue(sample.matches(), "invalid line: " + line);
+            String family = sample.group(1).replaceAll("_(bucket|sum|count)$", "");
+            assertTrue(typed.contains(family) || typed.contains(sample.group(1)), "no TYPE before " + line);
+        }
+        assertTrue(typed.contains(DURATION));
+    }
+
+    @Test
+    void histogramBucketsAreCumulativeAndMatchSumAndCount() {
+        RequestMetrics metrics = new RequestMetrics();
+        long[] nanos = {50_000, 200_000, 3_000_000, 3_000_000, 20_000_000_000L};
+        for (long duration : nanos) {
+            metrics.record("/api/users", "GET", 200, duration, 0, 0);
+        }
+        String text = expose(metrics);
+
+        Map<String, Double> buckets = new LinkedHashMap<>();
+        Matcher bucket = Pattern.compile(DURATION + "_bucket\\{[^}]*,le=\"([^\"]+)\"\\} (\\S+)").matcher(text);
+        while (bucket.find()) buckets.put(bucket.group(1), Double.parseDouble(bucket.group(2)));
+
+        List<String> bounds = new ArrayList<>(buckets.keySet());
+        assertEquals("+Inf", bounds.get(bounds.size() - 1));
+        double previousBound = Double.NEGATIVE_INFINITY;
+        double previousCount = 0;
+        for (String bound : bounds) {
+            double value = bound.equals("+Inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(bound);
+            assertTrue(value > previousBound, "bounds out of order at " + bound);
+            double count = buckets.get(bound);
+            assertTrue(count >= previousCount, "not cumulative at " + bound);
+            long expected = Arrays.stream(nanos).filter(n -> n / 1e9 <= value).count();
+            assertEquals(expected, count, 0, "le=" + bound);
+            previousBound = value;
+            previousCount = count;
+        }
+
+        assertEquals(nanos.length, sample(text, DURATION + "_count"), 0);
+        assertEquals(Arrays.stream(nanos).sum() / 1e9, sample(text, DURATION + "_sum"), 1e-9);
+    }
+
+    @Test
+    void labelsAreEscapedAndUnknownMethodsShareASeries() {
+        RequestMetrics metrics = new RequestMetrics();
+        metrics.record("/a\"b\\c\nd", "GET", 404, 1_000, 0, 0);
+        metrics.record("/api/users", "BREW", 418, 1_000, 0, 0);
+        metrics.record("/api/users", "PROPFIND", 418, 1_000, 0, 0);
+        metrics.record("/api/users", "GET", 999, 1_000, 0, 0);
+        String text = expose(metrics);
+
+        assertTrue(text.contains("endpoint=\"/a\\\"b\\\\c\\nd\""), text);
+        assertFalse(text.contains("BREW") || text.contains("PROPFIND"), text);
+        assertEquals(2, sample(text, DURATION + "_count{endpoint=\"/api/users\",method=\"OTHER\",status=\"418\"}"), 0);
+        // Status codes outside 100-599 are not a label value of their own
+        assertEquals(1, sample(text, DURATION + "_count{endpoint=\"/api/users\",method=\"GET\",status=\"none\"}"), 0);
+    }
+
+    @Test
+    void resetForgetsEverySeries() {
+        RequestMetrics metrics = new RequestMetrics();
+        metrics.record("/api/users", "GET", 200, 1_000, 0, 0);
+        metrics.reset();
+
+        assertFalse(expose(metrics).contains(DURATION + "_count{"));
+    }
+
+    // The value of the first sample whose name and labels start with the given prefix
+    private static double sample(String text, String prefix) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(prefix)) return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        throw new AssertionError("No sample " + prefix + " in\n" + text);
+    }
+}
@@ -0,0 +1,81 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StaticAssetCacheTest {
+    private static final long SETTLE_MILLIS = 10_000;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void editsReplaceTheCachedCopy() throws Exception {
+        Path file = root.resolve("app.js");
+        Files.writeString(file, "one");
+        try (StaticAssetCache cache = new StaticAssetCache(root, 1024)) {
+            assertEquals("one", content(cache, file));
+
+            Files.writeString(file, "two, longer");
+            assertEquals("two, longer", settle(cache, file, "two, longer"));
+        }
+    }
+
+    @Test
+    void filesOverTheThresholdAreNotCached() throws IOException {
+        Path file = root.resolve("big.js");
+        Files.writeString(file, "x".repeat(2048));
+        try (StaticAssetCache cache = new StaticAssetCache(root, 1024)) {
+            assertNull(cache.get(file));
+        }
+    }
+
+    // Loads racing the writes must never leave an old copy cached once the writes stop
+    @Test
+    void loadsRacingEditsDoNotPinStaleContent() throws Exception {
+        Path file = root.resolve("app.js");
+        Files.writeString(file, "version 0");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try (StaticAssetCache cache = new StaticAssetCache(root, 1024)) {
+            for (int round = 1; round <= 20; round++) {
+                String last = "version " + round;
+                Future<?> writes = pool.submit(() -> {
+                    for (int i = 0; i < 50; i++) Files.writeString(file, i % 2 == 0 ? "v" : "version " + i);
+                    Files.writeString(file, last);
+                    return null;
+                });
+                while (!writes.isDone()) content(cache, file);
+                writes.get();
+                assertEquals(last, settle(cache, file, last), "round " + round);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String content(StaticAssetCache cache, Path file) throws IOException {
+        StaticAssetCache.Asset asset = cache.get(file);
+        return asset == null ? null : new String(asset.content, StandardCharsets.UTF_8);
+    }
+
+    // Waits for the watcher to catch up with the last write
+    private static String settle(StaticAssetCache cache, Path file, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        String content = content(cache, file);
+        while (!expected.equals(content) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            content = content(cache, file);
+        }
+        return content;
+    }
+}
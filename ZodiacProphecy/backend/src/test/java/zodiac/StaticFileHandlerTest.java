@@ -0,0 +1,128 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class StaticFileHandlerTest {
+    private static final int SIZE = 100;
+
+    @TempDir
+    Path root;
+
+    private HttpServer server;
+    private byte[] content;
+
+    private static final class Response {
+        final int status;
+        final String contentRange;
+        final String etag;
+        final byte[] body;
+
+        Response(int status, String contentRange, String etag, byte[] body) {
+            this.status = status;
+            this.contentRange = contentRange;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    // A cache limit of zero streams the file; a large one serves it from memory
+    @ParameterizedTest
+    @ValueSource(longs = {0, 1024 * 1024})
+    void rangesAndConditionalRequests(long maxCachedBytes) throws IOException {
+        content = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) content[i] = (byte) i;
+        Files.write(root.resolve("media.bin"), content);
+        try (StaticAssetCache cache = new StaticAssetCache(root, maxCachedBytes)) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", new StaticFileHandler(cache));
+            server.start();
+            try {
+                Response full = get();
+                assertEquals(200, full.status);
+                assertArrayEquals(content, full.body);
+                String etag = full.etag;
+                assertNotNull(etag);
+
+                assertRange(10, 19, "Range", "bytes=10-19");
+                assertRange(90, 99, "Range", "bytes=-10");
+                assertRange(0, 99, "Range", "bytes=-500");
+                assertRange(95, 99, "Range", "bytes=95-");
+                assertRange(90, 99, "Range", "bytes=90-500");
+                assertRange(5, 9, "Range", "bytes=5-9", "If-Range", etag);
+
+                assertUnsatisfiable("Range", "bytes=100-");
+                assertUnsatisfiable("Range", "bytes=-0");
+
+                // Forms this server does not serve, and stale validators, get the whole file
+                assertFull("Range", "bytes=0-1,5-6");
+                assertFull("Range", "bytes=5-9", "If-Range", "\"stale\"");
+                assertFull("Range", "bytes=abc");
+                assertFull("Range", "items=0-9");
+
+                assertEquals(304, get("If-None-Match", etag).status);
+                assertEquals(304, get("If-Modified-Since", "Fri, 01 Jan 2100 00:00:00 GMT").status);
+                assertFull("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT");
+                assertFull("If-Modified-Since", "not a date");
+                // If-None-Match wins over If-Modified-Since
+                assertFull("If-None-Match", "\"stale\"", "If-Modified-Since", "Fri, 01 Jan 2100 00:00:00 GMT");
+            } finally {
+                server.stop(0);
+            }
+        }
+    }
+
+    private void assertRange(int start, int end, String... headers) throws IOException {
+        Response response = get(headers);
+        assertEquals(206, response.status, String.join(" ", headers));
+        assertEquals("bytes " + start + "-" + end + "/" + SIZE, response.contentRange);
+        assertArrayEquals(Arrays.copyOfRange(content, start, end + 1), response.body);
+    }
+
+    private void assertUnsatisfiable(String... headers) throws IOException {
+        Response response = get(headers);
+        assertEquals(416, response.status, String.join(" ", headers));
+        assertEquals("bytes */" + SIZE, response.contentRange);
+    }
+
+    private void assertFull(String... headers) throws IOException {
+        Response response = get(headers);
+        assertEquals(200, response.status, String.join(" ", headers));
+        assertArrayEquals(content, response.body);
+    }
+
+    private Response get(String... headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/media.bin").openConnection();
+        for (int i = 0; i < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+        try {
+            int status = connection.getResponseCode();
+            byte[] body = new byte[0];
+            if (status < 300) {
+                try (InputStream in = connection.getInputStream()) {
+                    body = in.readAllBytes();
+                }
+            }
+            return new Response(status, connection.getHeaderField("Content-Range"), connection.getHeaderField("ETag"), body);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
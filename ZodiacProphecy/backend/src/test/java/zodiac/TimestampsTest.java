@@ -0,0 +1,52 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimestampsTest {
+    private static final String[] ZONES = {"UTC", "America/New_York", "Asia/Kolkata", "Pacific/Chatham"};
+    private static final long[] TIMES = {0L, -1_000_000_000_000L, 1_711_846_799_000L, 1_730_000_000_123L, 4_102_444_799_000L};
+
+    private final TimeZone defaultZone = TimeZone.getDefault();
+
+    @AfterEach
+    void restoreZone() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    void jsonTimestampsUseTheDefaultZone() {
+        for (String zone : ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone));
+            for (long time : TIMES) {
+                JsonWriter writer = new JsonWriter();
+                writer.value(new Date(time));
+                assertEquals("\"" + expected(time) + "\"", writer.toString(), zone + " " + time);
+            }
+        }
+    }
+
+    @Test
+    void csvTimestampsMatchJson() throws IOException {
+        for (String zone : ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone));
+            for (long time : TIMES) {
+                StringWriter out = new StringWriter();
+                new CsvWriter(out).field(new Date(time)).field(1);
+                assertEquals(expected(time) + ",1", out.toString(), zone + " " + time);
+            }
+        }
+    }
+
+    private static String expected(long time) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT).format(new Date(time));
+    }
+}
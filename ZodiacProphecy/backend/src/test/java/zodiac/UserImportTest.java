@@ -0,0 +1,79 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class UserImportTest {
+    private InMemoryDataPersistence store;
+    private UserImporter importer;
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        store = new InMemoryDataPersistence(ConsultationLog.Layout.OBJECTS);
+        ZodiacProphecyGenerator generator = new ZodiacProphecyGenerator();
+        UserValidator validator = new UserValidator();
+        importer = new UserImporter(store, generator, validator, 2);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/users", new UserHandler(store, generator, validator, store, importer));
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        importer.shutdown();
+    }
+
+    // HttpURLConnection sends the whole body before it reads anything, so answering while
+    // the upload is still arriving would leave both sides blocked on full socket buffers
+    @Test
+    void clientThatSendsEverythingFirstGetsAllResults() {
+        int users = 200_000;
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < users; i++) {
+            body.append("{\"surname\":\"SMITH\",\"firstName\":\"JOHN\",\"gender\":\"MALE\",\"month\":")
+                .append(1 + i % 12).append(",\"day\":").append(1 + i % 28).append(",\"year\":1990}\n");
+        }
+        byte[] upload = body.toString().getBytes(StandardCharsets.UTF_8);
+
+        String response = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> post("/api/users/import?prophecy=false", upload));
+
+        assertEquals(users, response.lines().count());
+        assertEquals(users, response.lines().filter(line -> line.contains("\"success\":true")).count());
+        assertEquals(users, store.getUserCount());
+    }
+
+    private String post(String path, byte[] upload) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+            "http://127.0.0.1:" + server.getAddress().getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(upload.length);
+        connection.setRequestProperty("Content-Type", UserImporter.CONTENT_TYPE);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(upload);
+        }
+        assertEquals(200, connection.getResponseCode());
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            in.transferTo(response);
+        }
+        return response.toString(StandardCharsets.UTF_8);
+    }
+}
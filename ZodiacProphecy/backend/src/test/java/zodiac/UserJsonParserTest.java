@@ -0,0 +1,101 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class UserJsonParserTest {
+    private static User parse(String json) throws IOException {
+        return UserJsonParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertRejected(int status, String json) {
+        RequestParseException e = assertThrows(RequestParseException.class, () -> parse(json), json);
+        assertEquals(status, e.getStatusCode(), json);
+    }
+
+    @Test
+    void readsEveryField() throws IOException {
+        User user = parse("{\"surname\":\"SMITH\",\"firstName\":\"JOHN\",\"middleInitial\":\"Q\",\"suffix\":\"JR\","
+            + "\"gender\":\"MALE\",\"month\":7,\"day\":30,\"year\":1990}");
+
+        assertEquals("SMITH", user.getSurname());
+        assertEquals("JOHN", user.getFirstName());
+        assertEquals("Q", user.getMiddleInitial());
+        assertEquals("JR", user.getSuffix());
+        assertEquals("MALE", user.getGender());
+        assertEquals(7, user.getMonth());
+        assertEquals(30, user.getDay());
+        assertEquals(1990, user.getYear());
+    }
+
+    @Test
+    void decodesEscapesAndUtf8() throws IOException {
+        User user = parse("{\"surname\":\"M\\u00dcLLER\\t\\\"X\\\"\\/\\\\\",\"firstName\":\"\\ud83d\\ude00\","
+            + "\"suffix\":\"Ünïcødé 😀\"}");
+
+        assertEquals("MÜLLER\t\"X\"/\\", user.getSurname());
+        assertEquals("😀", user.getFirstName());
+        assertEquals("Ünïcødé 😀", user.getSuffix());
+    }
+
+    @Test
+    void skipsUnknownValuesOfAnyShape() throws IOException {
+        User user = parse("{ \"extra\" : {\"a\":[1,-2.5e3,{\"b\":null},[]],\"c\":true,\"d\":{}},"
+            + "\"flag\":false,\"list\":[\"x\",\"y\"],\n\"surname\":\"SMITH\"}");
+
+        assertEquals("SMITH", user.getSurname());
+    }
+
+    @Test
+    void acceptsNumericStringsAndKeepsValuesForNullOrEmpty() throws IOException {
+        User user = parse("{\"month\":\"7\",\"day\":\" 30 \",\"year\":\"+1990\"}");
+        assertEquals(7, user.getMonth());
+        assertEquals(30, user.getDay());
+        assertEquals(1990, user.getYear());
+
+        User unchanged = parse("{\"month\":7,\"month\":null,\"day\":30,\"day\":\"\",\"surname\":null}");
+        assertEquals(7, unchanged.getMonth());
+        assertEquals(30, unchanged.getDay());
+        assertNull(unchanged.getSurname());
+    }
+
+    @Test
+    void bodyOverTheLimitIs413() {
+        String name = "A".repeat(UserJsonParser.MAX_BODY_BYTES);
+        assertRejected(413, "{\"surname\":\"" + name + "\"}");
+    }
+
+    // Bad numbers included: they must not escape as NumberFormatException and a 500
+    @Test
+    void malformedInputIs400() {
+        String[] inputs = {
+            "", "[]", "{", "{\"surname\"}", "{\"surname\":\"SMITH\"", "{\"surname\":\"SMITH\"} x",
+            "{\"surname\":\"\\x\"}", "{\"surname\":\"\\u12G4\"}", "{\"surname\":\"a\u0001\"}",
+            "{\"month\":\"7x\"}", "{\"month\":1.5}", "{\"month\":\"-\"}", "{\"month\":99999999999}",
+            "{\"month\":tru}", "{\"extra\":" + "[".repeat(40) + "]".repeat(40) + "}",
+        };
+        for (String input : inputs) {
+            assertRejected(400, input);
+        }
+    }
+
+    @Test
+    void invalidUtf8Is400() {
+        byte[][] inputs = {
+            {'{', '"', 's', 'u', 'r', 'n', 'a', 'm', 'e', '"', ':', '"', (byte) 0xC3, '"', '}'},
+            {'{', '"', 's', 'u', 'r', 'n', 'a', 'm', 'e', '"', ':', '"', (byte) 0xC0, (byte) 0x80, '"', '}'},
+            {'{', '"', 's', 'u', 'r', 'n', 'a', 'm', 'e', '"', ':', '"', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '"', '}'},
+        };
+        for (byte[] input : inputs) {
+            RequestParseException e = assertThrows(RequestParseException.class,
+                () -> UserJsonParser.parse(input, 0, input.length));
+            assertEquals(400, e.getStatusCode());
+        }
+    }
+}
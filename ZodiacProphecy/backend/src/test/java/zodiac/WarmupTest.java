@@ -0,0 +1,39 @@
+package zodiac;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class WarmupTest {
+    @Test
+    void warmupTrafficIsNotInTheServedMetrics() throws IOException {
+        String previous = System.setProperty("zodiac.warmupRounds", "1");
+        HttpServer server;
+        try {
+            server = ZodiacServer.start(0);
+        } finally {
+            if (previous == null) System.clearProperty("zodiac.warmupRounds");
+            else System.setProperty("zodiac.warmupRounds", previous);
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/api/admin/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            String metrics;
+            try (InputStream in = connection.getInputStream()) {
+                metrics = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+
+            assertFalse(metrics.contains("zodiac_http_request_duration_seconds_count{"), metrics);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
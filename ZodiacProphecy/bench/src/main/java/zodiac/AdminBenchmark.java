@@ -0,0 +1,50 @@
+package zodiac;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Admin reads over stores of different sizes, driven through AdminHandler end to end. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdminBenchmark {
+    @Param({"1000", "100000"})
+    public int consultations;
+
+    @Param({"objects", "columnar"})
+    public String layout;
+
+    private AdminHandler handler;
+
+    @Setup
+    public void setUp() {
+        InMemoryDataPersistence persistence = BenchData.populate(ConsultationLog.Layout.fromProperty(layout),
+            consultations, new ZodiacProphecyGenerator(ZodiacProphecyGenerator.SeedMode.COMPATIBLE));
+        handler = new AdminHandler(persistence, null, null, null);
+    }
+
+    @Benchmark
+    public long exportJson() throws IOException {
+        return run("/api/admin/export?format=json");
+    }
+
+    @Benchmark
+    public long exportCsv() throws IOException {
+        return run("/api/admin/export?format=csv");
+    }
+
+    @Benchmark
+    public long getStats() throws IOException {
+        return run("/api/admin/stats");
+    }
+
+    private long run(String uri) throws IOException {
+        BenchExchange exchange = new BenchExchange("GET", uri);
+        handler.handle(exchange);
+        return exchange.responseBytes();
+    }
+}
@@ -0,0 +1,43 @@
+package zodiac;
+
+import java.util.SplittableRandom;
+
+/** Deterministic users and consultation logs shared by the benchmarks. */
+final class BenchData {
+    private static final String[] SURNAMES = {"SMITH", "JOHNSON", "GARCIA", "NGUYEN", "MUELLER", "ROSSI", "KOWALSKI", "TANAKA"};
+    private static final String[] FIRST_NAMES = {"JOHN", "MARIA", "WEI", "FATIMA", "OLIVER", "AMARA", "LUCAS", "SOFIA"};
+
+    private BenchData() {}
+
+    static User user(SplittableRandom random) {
+        User user = new User();
+        user.setSurname(SURNAMES[random.nextInt(SURNAMES.length)]);
+        user.setFirstName(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+        user.setMiddleInitial(random.nextBoolean() ? "Q" : "");
+        user.setSuffix("");
+        user.setGender(random.nextBoolean() ? "MALE" : "FEMALE");
+        user.setMonth(1 + random.nextInt(12));
+        user.setDay(1 + random.nextInt(28));
+        user.setYear(1930 + random.nextInt(90));
+        return user;
+    }
+
+    static String userJson(User user) {
+        return "{\"surname\":\"" + user.getSurname() + "\",\"firstName\":\"" + user.getFirstName()
+            + "\",\"middleInitial\":\"" + user.getMiddleInitial() + "\",\"suffix\":\"\",\"gender\":\"" + user.getGender()
+            + "\",\"month\":" + user.getMonth() + ",\"day\":" + user.getDay() + ",\"year\":" + user.getYear() + "}";
+    }
+
+    // Saves the given number of users, each with one consultation
+    static InMemoryDataPersistence populate(ConsultationLog.Layout layout, int consultations, ProphecyGenerator generator) {
+        InMemoryDataPersistence persistence = new InMemoryDataPersistence(layout);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < consultations; i++) {
+            User user = user(random);
+            ConsultationRecord record = new ConsultationRecord(user, generator);
+            persistence.saveUser(user);
+            persistence.addConsultation(record);
+        }
+        return persistence;
+    }
+}
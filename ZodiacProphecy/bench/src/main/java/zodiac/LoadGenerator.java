@@ -0,0 +1,400 @@
+package zodiac;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * HTTP load generator for ZodiacServer. Starts a server in-process unless --target points
+ * at a running one, seeds users, then drives a weighted mix of static, user, consultation
+ * and admin requests.
+ *
+ * <p>Open-loop mode sends at a fixed arrival rate whatever the server does; closed-loop
+ * mode keeps a fixed number of connections busy, paced to --rate when one is given. Paced
+ * requests are timed from when they were due rather than when they went out, so a stalled
+ * server shows up in the percentiles instead of silently lowering the send rate
+ * (coordinated omission). Unpaced closed-loop numbers cannot be corrected and are marked
+ * as such in the results.
+ *
+ * <pre>
+ * java -cp bench/target/benchmarks.jar zodiac.LoadGenerator --mode=open --rate=2000 --duration=60s --out=run.json
+ * </pre>
+ */
+public final class LoadGenerator {
+    enum Kind {
+        STATIC("static"),
+        USERS("users"),
+        CONSULTATIONS("consultations"),
+        ADMIN("admin");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        static Kind fromLabel(String label) {
+            for (Kind kind : values()) {
+                if (kind.label.equalsIgnoreCase(label)) return kind;
+            }
+            throw new IllegalArgumentException("Unknown request kind: " + label);
+        }
+    }
+
+    static final class Options {
+        String target;
+        boolean openLoop = true;
+        double rate = 1000;
+        int connections = 16;
+        long durationNanos = TimeUnit.SECONDS.toNanos(30);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(5);
+        int seedUsers = 100;
+        int maxOutstanding = 10_000;
+        Path out;
+        final Map<Kind, Integer> mix = new EnumMap<>(Kind.class);
+
+        Options() {
+            mix.put(Kind.STATIC, 20);
+            mix.put(Kind.USERS, 10);
+            mix.put(Kind.CONSULTATIONS, 60);
+            mix.put(Kind.ADMIN, 10);
+        }
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            boolean rateGiven = false;
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) throw new IllegalArgumentException("Expected --name=value: " + arg);
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (name) {
+                    case "target" -> options.target = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                    case "mode" -> options.openLoop = switch (value) {
+                        case "open" -> true;
+                        case "closed" -> false;
+                        default -> throw new IllegalArgumentException("Mode must be open or closed");
+                    };
+                    case "rate" -> {
+                        options.rate = Double.parseDouble(value);
+                        rateGiven = true;
+                    }
+                    case "connections" -> options.connections = Integer.parseInt(value);
+                    case "duration" -> options.durationNanos = parseDuration(value);
+                    case "warmup" -> options.warmupNanos = parseDuration(value);
+                    case "users" -> options.seedUsers = Integer.parseInt(value);
+                    case "maxOutstanding" -> options.maxOutstanding = Integer.parseInt(value);
+                    case "out" -> options.out = Paths.get(value);
+                    case "mix" -> {
+                        options.mix.clear();
+                        for (String part : value.split(",")) {
+                            String[] weight = part.split(":");
+                            options.mix.put(Kind.fromLabel(weight[0].trim()), Integer.parseInt(weight[1].trim()));
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option: --" + name);
+                }
+            }
+            // Closed loop runs flat out unless a rate was asked for
+            if (!options.openLoop && !rateGiven) options.rate = 0;
+            if (options.openLoop && options.rate <= 0) throw new IllegalArgumentException("Open loop needs a positive --rate");
+            if (options.mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+                throw new IllegalArgumentException("--mix needs at least one positive weight");
+            }
+            return options;
+        }
+
+        // Accepts 500ms, 30s, 2m, or plain seconds
+        private static long parseDuration(String value) {
+            if (value.endsWith("ms")) return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(value.substring(0, value.length() - 2)));
+            if (value.endsWith("s")) return TimeUnit.SECONDS.toNanos(Long.parseLong(value.substring(0, value.length() - 1)));
+            if (value.endsWith("m")) return TimeUnit.MINUTES.toNanos(Long.parseLong(value.substring(0, value.length() - 1)));
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+        }
+
+        boolean corrected() {
+            return openLoop || rate > 0;
+        }
+    }
+
+    // Latencies in microseconds; the histograms grow to fit whatever they are given
+    private static final class Results {
+        final Histogram overall = new ConcurrentHistogram(3);
+        final Map<Kind, Histogram> byKind = new EnumMap<>(Kind.class);
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder failures = new LongAdder();
+
+        Results() {
+            for (Kind kind : Kind.values()) {
+                byKind.put(kind, new ConcurrentHistogram(3));
+            }
+        }
+
+        void record(Kind kind, long dueNanos, int status) {
+            long micros = Math.max(1, (System.nanoTime() - dueNanos) / 1000);
+            overall.recordValue(micros);
+            byKind.get(kind).recordValue(micros);
+            statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+        }
+
+        long errors() {
+            long errors = failures.sum();
+            for (Map.Entry<Integer, LongAdder> entry : statuses.entrySet()) {
+                if (entry.getKey() >= 400) errors += entry.getValue().sum();
+            }
+            return errors;
+        }
+    }
+
+    private static final String[] STATIC_PATHS = {"/index.html", "/style.css", "/script.js", "/admin.html"};
+    private static final String[] ADMIN_PATHS = {
+        "/api/admin/stats", "/api/admin/users?limit=100", "/api/admin/query?type=users&sign=Leo", "/api/admin/executor"};
+
+    private final Options options;
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Kind[] schedule;
+    private final List<String> userIds = new ArrayList<>();
+    private final Results results = new Results();
+    private long measureFromNanos;
+
+    private LoadGenerator(Options options, HttpClient client, String baseUrl) {
+        this.options = options;
+        this.client = client;
+        this.baseUrl = baseUrl;
+        List<Kind> weighted = new ArrayList<>();
+        options.mix.forEach((kind, weight) -> {
+            for (int i = 0; i < weight; i++) weighted.add(kind);
+        });
+        this.schedule = weighted.toArray(new Kind[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        HttpServer server = null;
+        String baseUrl = options.target;
+        if (baseUrl == null) {
+            server = ZodiacServer.start(0);
+            baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+        ExecutorService callbacks = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(callbacks)
+            .build();
+        try {
+            LoadGenerator generator = new LoadGenerator(options, client, baseUrl);
+            generator.seedUsers();
+            long elapsedNanos = generator.run();
+            generator.report(elapsedNanos);
+        } finally {
+            if (server != null) server.stop(0);
+            callbacks.shutdownNow();
+        }
+        System.exit(0);
+    }
+
+    private void seedUsers() throws IOException, InterruptedException {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < options.seedUsers; i++) {
+            HttpResponse<String> response = client.send(userRequest(random), HttpResponse.BodyHandlers.ofString());
+            String body = response.body();
+            int start = body.indexOf("\"userId\":\"");
+            if (response.statusCode() != 200 || start < 0) throw new IOException("Seeding users failed: " + body);
+            start += "\"userId\":\"".length();
+            userIds.add(body.substring(start, body.indexOf('"', start)));
+        }
+    }
+
+    // Returns the length of the measured period
+    private long run() throws InterruptedException {
+        long start = System.nanoTime();
+        measureFromNanos = start + options.warmupNanos;
+        long end = measureFromNanos + options.durationNanos;
+        if (options.openLoop) {
+            runOpenLoop(start, end);
+        } else {
+            runClosedLoop(start, end);
+        }
+        return Math.max(1, Math.min(System.nanoTime(), end) - measureFromNanos);
+    }
+
+    private void runOpenLoop(long start, long end) {
+        Semaphore outstanding = new Semaphore(options.maxOutstanding);
+        double intervalNanos = 1e9 / options.rate;
+        for (long i = 0; ; i++) {
+            long due = start + (long) (i * intervalNanos);
+            if (due >= end) break;
+            long wait = due - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            // Waiting here still counts against the request, since its time is taken from due
+            outstanding.acquireUninterruptibly();
+            Kind kind = nextKind();
+            client.sendAsync(request(kind), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, failure) -> {
+                    outstanding.release();
+                    complete(kind, due, response, failure);
+                });
+        }
+        outstanding.acquireUninterruptibly(options.maxOutstanding);
+    }
+
+    private void runClosedLoop(long start, long end) throws InterruptedException {
+        double intervalNanos = options.rate > 0 ? 1e9 * options.connections / options.rate : 0;
+        List<Thread> workers = new ArrayList<>();
+        for (int c = 0; c < options.connections; c++) {
+            long offset = (long) (intervalNanos * c / options.connections);
+            Thread worker = new Thread(() -> {
+                for (long i = 0; ; i++) {
+                    long due = intervalNanos > 0 ? start + offset + (long) (i * intervalNanos) : System.nanoTime();
+                    if (due >= end) break;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    Kind kind = nextKind();
+                    try {
+                        complete(kind, due, client.send(request(kind), HttpResponse.BodyHandlers.discarding()), null);
+                    } catch (IOException e) {
+                        complete(kind, due, null, e);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "load-" + c);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void complete(Kind kind, long dueNanos, HttpResponse<?> response, Throwable failure) {
+        if (dueNanos < measureFromNanos) return;
+        if (failure != null) {
+            results.failures.increment();
+        } else {
+            results.record(kind, dueNanos, response.statusCode());
+        }
+    }
+
+    private Kind nextKind() {
+        return schedule[ThreadLocalRandom.current().nextInt(schedule.length)];
+    }
+
+    private HttpRequest request(Kind kind) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return switch (kind) {
+            case STATIC -> get(STATIC_PATHS[random.nextInt(STATIC_PATHS.length)]);
+            case USERS -> userRequest(new SplittableRandom(random.nextLong()));
+            case CONSULTATIONS -> get("/api/consultations?userId=" + userIds.get(random.nextInt(userIds.size())));
+            case ADMIN -> get(ADMIN_PATHS[random.nextInt(ADMIN_PATHS.length)]);
+        };
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30)).GET().build();
+    }
+
+    private HttpRequest userRequest(SplittableRandom random) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/api/users"))
+            .timeout(Duration.ofSeconds(30))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(BenchData.userJson(BenchData.user(random))))
+            .build();
+    }
+
+    private void report(long elapsedNanos) throws IOException {
+        double seconds = elapsedNanos / 1e9;
+        long count = results.overall.getTotalCount();
+        System.out.printf(Locale.ROOT, "%s loop, %s, %.1f s measured, %d requests, %d errors, %.1f req/s%n",
+            options.openLoop ? "Open" : "Closed",
+            options.rate > 0 ? String.format(Locale.ROOT, "%.0f req/s target", options.rate) : options.connections + " connections",
+            seconds, count, results.errors(), count / seconds);
+        if (!options.corrected()) System.out.println("Unpaced closed loop: latencies are not corrected for coordinated omission");
+        System.out.printf(Locale.ROOT, "%-14s %10s %10s %10s %10s %10s%n", "(microseconds)", "count", "p50", "p99", "p99.9", "max");
+        printRow("all", results.overall);
+        for (Map.Entry<Kind, Histogram> entry : results.byKind.entrySet()) {
+            if (entry.getValue().getTotalCount() > 0) printRow(entry.getKey().label, entry.getValue());
+        }
+
+        if (options.out != null) {
+            JsonWriter json = new JsonWriter();
+            json.beginObject()
+                .name("target").value(options.target != null ? options.target : "in-process")
+                .name("mode").value(options.openLoop ? "open" : "closed")
+                .name("targetRate").value(Math.round(options.rate))
+                .name("connections").value(options.connections)
+                .name("durationMillis").value(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .name("coordinatedOmissionCorrected").value(options.corrected())
+                .name("requests").value(count)
+                .name("errors").value(results.errors())
+                .name("throughputPerSecond").value(Math.round(count / seconds))
+                .name("statuses").beginObject();
+            results.statuses.forEach((status, counter) -> json.name(String.valueOf(status)).value(counter.sum()));
+            json.endObject().name("latencyMicros");
+            writeLatency(json, results.overall);
+            json.name("byKind").beginObject();
+            for (Map.Entry<Kind, Histogram> entry : results.byKind.entrySet()) {
+                if (entry.getValue().getTotalCount() == 0) continue;
+                json.name(entry.getKey().label);
+                writeLatency(json, entry.getValue());
+            }
+            json.endObject().endObject().newline();
+            try (OutputStream os = Files.newOutputStream(options.out)) {
+                json.writeTo(os);
+            }
+            System.out.println("Results written to " + options.out);
+        }
+    }
+
+    private static void printRow(String label, Histogram histogram) {
+        System.out.printf(Locale.ROOT, "%-14s %10d %10d %10d %10d %10d%n", label, histogram.getTotalCount(),
+            histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+            histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+    }
+
+    private static void writeLatency(JsonWriter json, Histogram histogram) {
+        json.beginObject()
+            .name("count").value(histogram.getTotalCount())
+            .name("mean").value(Math.round(histogram.getMean()))
+            .name("p50").value(histogram.getValueAtPercentile(50))
+            .name("p90").value(histogram.getValueAtPercentile(90))
+            .name("p99").value(histogram.getValueAtPercentile(99))
+            .name("p999").value(histogram.getValueAtPercentile(99.9))
+            .name("max").value(histogram.getMaxValue())
+            .endObject();
+    }
+}
@@ -0,0 +1,51 @@
+package zodiac;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Concurrent submissions against the in-memory store: each operation saves a new user and
+ * its consultation, as POST /api/users does. The store is emptied before every iteration
+ * so its size stays comparable between runs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class PersistenceBenchmark {
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"objects", "columnar"})
+        public String layout;
+
+        InMemoryDataPersistence persistence;
+        final ProphecyGenerator generator = new ZodiacProphecyGenerator(ZodiacProphecyGenerator.SeedMode.COMPATIBLE);
+
+        @Setup(Level.Trial)
+        public void create() {
+            persistence = new InMemoryDataPersistence(ConsultationLog.Layout.fromProperty(layout));
+        }
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            persistence.clearAllData();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Submitter {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public ConsultationRecord saveUserWithConsultation(Store store, Submitter submitter) {
+        User user = BenchData.user(submitter.random);
+        ConsultationRecord record = new ConsultationRecord(user, store.generator);
+        store.persistence.saveUser(user);
+        store.persistence.addConsultation(record);
+        return record;
+    }
+}
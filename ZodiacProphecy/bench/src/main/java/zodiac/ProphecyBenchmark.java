@@ -0,0 +1,47 @@
+package zodiac;
+
+import java.util.Date;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Prophecy generation and sign lookup for a rotating set of users. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProphecyBenchmark {
+    private static final int USERS = 1024;
+
+    @Param({"compatible", "integer"})
+    public String seedMode;
+
+    private ZodiacProphecyGenerator generator;
+    private final User[] users = new User[USERS];
+    private Date now;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        generator = new ZodiacProphecyGenerator(ZodiacProphecyGenerator.SeedMode.fromProperty(seedMode));
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < USERS; i++) {
+            users[i] = BenchData.user(random);
+            users[i].setId(IdGenerator.format(InMemoryDataPersistence.USER_ID_PREFIX, IdGenerator.shared().nextId()));
+        }
+        now = new Date();
+    }
+
+    @Benchmark
+    public Prophecy generateProphecy() {
+        return generator.generateProphecy(users[next++ & (USERS - 1)], now, now);
+    }
+
+    @Benchmark
+    public ZodiacSign calculateZodiacSign() {
+        User user = users[next++ & (USERS - 1)];
+        return generator.calculateZodiacSign(user.getMonth(), user.getDay());
+    }
+}
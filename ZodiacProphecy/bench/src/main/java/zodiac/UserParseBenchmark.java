@@ -0,0 +1,41 @@
+package zodiac;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Parsing a submitted user, from a stream as POST /api/users does and in place as the import does. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserParseBenchmark {
+    private static final int BODIES = 256;
+
+    private final byte[][] bodies = new byte[BODIES][];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < BODIES; i++) {
+            bodies[i] = BenchData.userJson(BenchData.user(random)).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public User parseStream() throws IOException {
+        return UserJsonParser.parse(new ByteArrayInputStream(bodies[next++ & (BODIES - 1)]));
+    }
+
+    @Benchmark
+    public User parseInPlace() throws IOException {
+        byte[] body = bodies[next++ & (BODIES - 1)];
+        return UserJsonParser.parse(body, 0, body.length);
+    }
+}
@@ -985,21 +985,13 @@ function updateProphecyDisplay(zodiacSign, prophecy) {
 
 async function fetchProphecyFromBackend(userData) {
     try {
-        const userResponse = await fetch('/api/users', {
+        // Saves the user and returns their prophecy in a single round trip
+        const prophecyResponse = await fetch('/api/users/consult', {
             method: 'POST',
             headers: { 'Content-Type': 'application/json' },
             body: JSON.stringify(userData)
         });
 
-        if (!userResponse.ok) throw new Error('Failed to save user data');
-
-        const userResult = await userResponse.json();
-
-        const prophecyResponse = await fetch(`/api/consultations?userId=${userResult.userId}`, {
-            method: 'GET',
-            headers: { 'Content-Type': 'application/json' }
-        });
-
         if (!prophecyResponse.ok) throw new Error('Failed to fetch prophecy');
 
         return await prophecyResponse.json();